@@ -22,11 +22,27 @@
 import io.github.themrmilchmann.gradle.publish.curseforge.*
 
 plugins {
+    alias(buildDeps.plugins.jmh)
     alias(buildDeps.plugins.loom)
     id("io.github.themrmilchmann.java-conventions")
     id("io.github.themrmilchmann.curseforge-publish-conventions")
 }
 
+jmh {
+    jmhVersion = libs.versions.jmh
+}
+
+sourceSets {
+    named("jmh") {
+        /*
+         * Loom only wires the (remapped) Minecraft and mod dependencies into the main source set. The benchmarks need
+         * the exact same classpath.
+         */
+        compileClasspath += main.get().compileClasspath
+        runtimeClasspath += main.get().runtimeClasspath
+    }
+}
+
 tasks {
     processResources {
         val version = "${project.version}"
@@ -0,0 +1,88 @@
+/*
+ * Copyright (c) 2022-2024 Leon Linhart
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package io.github.themrmilchmann.ae2cc;
+
+import appeng.api.networking.crafting.ICraftingLink;
+import com.google.common.collect.ImmutableSet;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks the bookkeeping of running crafting jobs.
+ *
+ * <p>AE2 calls {@code getRequestedJobs} (i.e. {@link CraftingJobRegistry#links()}) for every crafting requester
+ * whenever the crafting service updates. {@code jobStateChange} and submitting jobs from {@code tickingRequest} modify
+ * the registry and invalidate its snapshots.</p>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CraftingJobRegistryBenchmark {
+
+    @Param({ "16", "256", "4096" })
+    public int jobs;
+
+    private CraftingJobRegistry registry;
+    private CraftingJob[] craftingJobs;
+    private int next;
+
+    @Setup
+    public void setup() {
+        this.registry = new CraftingJobRegistry();
+        this.craftingJobs = new CraftingJob[this.jobs];
+
+        for (int i = 0; i < this.jobs; i++) {
+            UUID craftingID = UUID.randomUUID();
+            ICraftingLink link = Stubs.stub(ICraftingLink.class, (proxy, method, args) -> method.getName().equals("getCraftingID") ? craftingID : null);
+
+            this.craftingJobs[i] = new CraftingJob(UUID.randomUUID(), link);
+            this.registry.add(this.craftingJobs[i]);
+        }
+    }
+
+    @Benchmark
+    public ImmutableSet<ICraftingLink> getRequestedJobs() {
+        return this.registry.links();
+    }
+
+    @Benchmark
+    public ImmutableSet<ICraftingLink> getRequestedJobsAfterJobStateChange() {
+        CraftingJob job = this.craftingJobs[this.next++ % this.craftingJobs.length];
+
+        // A job finishes and another one (here: the same one) is submitted.
+        this.registry.remove(job.link());
+        this.registry.add(job);
+
+        return this.registry.links();
+    }
+
+    @Benchmark
+    public CraftingJob getByID() {
+        return this.registry.get(this.craftingJobs[this.next++ % this.craftingJobs.length].id());
+    }
+
+}
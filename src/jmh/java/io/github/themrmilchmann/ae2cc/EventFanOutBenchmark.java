@@ -0,0 +1,123 @@
+/*
+ * Copyright (c) 2022-2024 Leon Linhart
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package io.github.themrmilchmann.ae2cc;
+
+import dan200.computercraft.api.peripheral.IComputerAccess;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks dispatching events to the computers attached to an adapter via the {@link EventRouter} and delivering
+ * them from the grid tick.
+ *
+ * <p>The first computer subscribes to the events of all jobs, while the others keep the default subscription and thus
+ * only receive the events of their own jobs. Each computer owns one job.</p>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class EventFanOutBenchmark {
+
+    @Param({ "1", "4", "12" })
+    public int computers;
+
+    @Param({ "1", "16", "128" })
+    public int events;
+
+    private EventRouter eventRouter;
+    private UUID[] jobIDs;
+    private String[] coalescingKeys;
+    private Blackhole blackhole;
+
+    @Setup
+    public void setup(Blackhole blackhole) {
+        this.blackhole = blackhole;
+        this.eventRouter = new EventRouter();
+        this.jobIDs = new UUID[this.computers];
+        this.coalescingKeys = new String[this.computers];
+
+        for (int i = 0; i < this.computers; i++) {
+            int id = i;
+
+            IComputerAccess computer = Stubs.stub(IComputerAccess.class, (proxy, method, args) -> switch (method.getName()) {
+                case "getID" -> id;
+                case "queueEvent" -> {
+                    this.blackhole.consume(args);
+                    yield null;
+                }
+                default -> null;
+            });
+
+            this.eventRouter.attach(computer);
+            if (i == 0) this.eventRouter.subscribe(computer, Set.of(), true);
+
+            this.jobIDs[i] = UUID.randomUUID();
+            this.coalescingKeys[i] = "ae2cc:crafting_progress:" + this.jobIDs[i];
+            this.eventRouter.claim(this.jobIDs[i], computer);
+        }
+    }
+
+    @Benchmark
+    public void notifyAndDeliver() {
+        for (int i = 0; i < this.events; i++) {
+            this.eventRouter.dispatch(null, null, "ae2cc:inventory_changed", new Object[] { i });
+        }
+
+        this.deliverAll();
+    }
+
+    @Benchmark
+    public void notifyJobAndDeliver() {
+        for (int i = 0; i < this.events; i++) {
+            UUID jobID = this.jobIDs[i % this.jobIDs.length];
+            this.eventRouter.dispatch(null, jobID, "ae2cc:crafting_started", new Object[] { jobID.toString() });
+        }
+
+        this.deliverAll();
+    }
+
+    @Benchmark
+    public void notifyCoalescedAndDeliver() {
+        for (int i = 0; i < this.events; i++) {
+            int job = i % this.jobIDs.length;
+            this.eventRouter.dispatch(this.coalescingKeys[job], this.jobIDs[job], "ae2cc:crafting_progress", new Object[] { this.jobIDs[job].toString(), (long) i, 1000L, 0L });
+        }
+
+        this.deliverAll();
+    }
+
+    private void deliverAll() {
+        boolean hasRemaining;
+
+        do {
+            hasRemaining = this.eventRouter.deliver();
+        } while (hasRemaining);
+    }
+
+}
@@ -0,0 +1,132 @@
+/*
+ * Copyright (c) 2022-2024 Leon Linhart
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package io.github.themrmilchmann.ae2cc;
+
+import appeng.api.stacks.AEItemKey;
+import appeng.api.stacks.AEKey;
+import appeng.api.stacks.KeyCounter;
+import dan200.computercraft.api.lua.LuaException;
+import net.minecraft.SharedConstants;
+import net.minecraft.core.registries.BuiltInRegistries;
+import net.minecraft.server.Bootstrap;
+import net.minecraft.world.item.Item;
+import net.minecraft.world.item.ItemStack;
+import net.minecraft.world.item.Items;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks converting the inventory of a grid into its Lua representations.
+ *
+ * <p>The inventory consists of vanilla items (and NBT variants thereof, to reach the larger sizes). Only the vanilla
+ * registries are bootstrapped. Neither a server nor a mod loader is started.</p>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class LuaConversionBenchmark {
+
+    @Param({ "1000", "10000", "50000" })
+    public int objects;
+
+    private KeyCounter inventory;
+    private List<AEKey> keys;
+    private ObjectQuery topTenQuery;
+
+    @Setup
+    public void setup() throws LuaException {
+        SharedConstants.tryDetectVersion();
+        Bootstrap.bootStrap();
+
+        List<Item> items = new ArrayList<>();
+        for (Item item : BuiltInRegistries.ITEM) {
+            if (item != Items.AIR) items.add(item);
+        }
+
+        this.inventory = new KeyCounter();
+        this.keys = new ArrayList<>(this.objects);
+
+        for (int i = 0; i < this.objects; i++) {
+            ItemStack stack = new ItemStack(items.get(i % items.size()));
+            if (i >= items.size()) stack.getOrCreateTag().putInt("variant", i / items.size());
+
+            AEItemKey key = AEItemKey.of(stack);
+            this.inventory.add(key, 1 + i);
+            this.keys.add(key);
+        }
+
+        this.topTenQuery = ObjectQuery.parse(Map.of("sortBy", "amount", "limit", 10.0D));
+    }
+
+    /**
+     * The conversion done by {@code getAvailableObjects}.
+     */
+    @Benchmark
+    public List<Map<String, Object>> getAvailableObjects() {
+        return LuaKeyCache.getAll(this.inventory);
+    }
+
+    @Benchmark
+    public Map<String, Object> getAvailableObjectColumns() {
+        return ObjectColumns.of(this.inventory, false);
+    }
+
+    @Benchmark
+    public Map<String, Object> getAvailableObjectColumnsWithDisplayNames() {
+        return ObjectColumns.of(this.inventory, true);
+    }
+
+    /**
+     * The representation of individual keys as used by events and {@code getCraftableObjects}.
+     */
+    @Benchmark
+    public void getKeyRepresentations(Blackhole blackhole) {
+        for (AEKey key : this.keys) {
+            blackhole.consume(LuaKeyCache.get(key));
+        }
+    }
+
+    @Benchmark
+    public List<ObjectQuery.Match> queryTopTen() {
+        return this.topTenQuery.execute(this.inventory);
+    }
+
+    /**
+     * The most expensive part of capturing a {@link GridSnapshot}.
+     */
+    @Benchmark
+    public KeyCounter copyInventory() {
+        KeyCounter copy = new KeyCounter();
+        copy.addAll(this.inventory);
+
+        return copy;
+    }
+
+}
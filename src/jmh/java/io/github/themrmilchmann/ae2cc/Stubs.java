@@ -0,0 +1,77 @@
+/*
+ * Copyright (c) 2022-2024 Leon Linhart
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package io.github.themrmilchmann.ae2cc;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+
+/**
+ * In-process stand-ins for the AE2 and ComputerCraft interfaces used by the benchmarks.
+ */
+final class Stubs {
+
+    private Stubs() {}
+
+    /**
+     * Returns a stub of the given interface that delegates to the given handler.
+     *
+     * <p>{@code equals} and {@code hashCode} use identity semantics. All other methods that are not handled by the
+     * handler (i.e. for which it returns {@code null}) return the default value of their return type.</p>
+     */
+    static <T> T stub(Class<T> type, InvocationHandler handler) {
+        Object stub = Proxy.newProxyInstance(Stubs.class.getClassLoader(), new Class<?>[] { type }, (proxy, method, args) -> {
+            switch (method.getName()) {
+                case "equals":
+                    if (method.getParameterCount() == 1) return proxy == args[0];
+                    break;
+                case "hashCode":
+                    if (method.getParameterCount() == 0) return System.identityHashCode(proxy);
+                    break;
+                case "toString":
+                    if (method.getParameterCount() == 0) return type.getSimpleName() + "@" + Integer.toHexString(System.identityHashCode(proxy));
+                    break;
+            }
+
+            Object result = handler.invoke(proxy, method, args);
+            return (result != null) ? result : defaultValue(method);
+        });
+
+        return type.cast(stub);
+    }
+
+    private static Object defaultValue(Method method) {
+        Class<?> returnType = method.getReturnType();
+        if (!returnType.isPrimitive() || returnType == void.class) return null;
+
+        if (returnType == boolean.class) return false;
+        if (returnType == char.class) return '\0';
+        if (returnType == byte.class) return (byte) 0;
+        if (returnType == short.class) return (short) 0;
+        if (returnType == int.class) return 0;
+        if (returnType == long.class) return 0L;
+        if (returnType == float.class) return 0.0F;
+
+        return 0.0D;
+    }
+
+}
@@ -0,0 +1,188 @@
+/*
+ * Copyright (c) 2022-2024 Leon Linhart
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package io.github.themrmilchmann.ae2cc;
+
+import appeng.api.networking.crafting.*;
+import appeng.api.networking.security.IActionSource;
+import dan200.computercraft.api.peripheral.IComputerAccess;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks the server thread work of an adapter after a burst of crafting calculations has completed: draining the
+ * completed jobs through the {@link MainThreadScheduler} via {@link CraftingJobStarter#startNext}, and dispatching and
+ * delivering the resulting {@code ae2cc:crafting_started} events via the {@link EventRouter}.
+ *
+ * <p>The adapter itself cannot be constructed outside a running game, so the grid's crafting service is stubbed and
+ * the adapter's listener only dispatches the events. Everything else is the code that the adapter runs.</p>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TickingRequestBenchmark {
+
+    @Param({ "16", "256", "4096" })
+    public int jobs;
+
+    @Param({ "1", "4", "12" })
+    public int computers;
+
+    private ICraftingService craftingService;
+    private ICraftingRequester requester;
+    private IActionSource actionSource;
+    private Future<ICraftingPlan> futureCraftingPlan;
+    private IComputerAccess[] computerAccesses;
+    private Blackhole blackhole;
+
+    private EventRouter eventRouter;
+    private CraftingJobRegistry craftingJobs;
+    private CraftingJobStarter craftingJobStarter;
+    private ScheduledWork scheduledWork;
+
+    @Setup(Level.Trial)
+    public void setupTrial(Blackhole blackhole) {
+        this.blackhole = blackhole;
+
+        ICraftingPlan craftingPlan = Stubs.stub(ICraftingPlan.class, (proxy, method, args) -> null);
+        this.futureCraftingPlan = CompletableFuture.completedFuture(craftingPlan);
+
+        this.craftingService = Stubs.stub(ICraftingService.class, (proxy, method, args) -> {
+            if (!method.getName().equals("submitJob")) return null;
+
+            UUID craftingID = UUID.randomUUID();
+            ICraftingLink link = Stubs.stub(ICraftingLink.class, (linkProxy, linkMethod, linkArgs) -> linkMethod.getName().equals("getCraftingID") ? craftingID : null);
+
+            return Stubs.stub(ICraftingSubmitResult.class, (resultProxy, resultMethod, resultArgs) -> switch (resultMethod.getName()) {
+                case "successful" -> true;
+                case "link" -> link;
+                default -> null;
+            });
+        });
+
+        this.requester = Stubs.stub(ICraftingRequester.class, (proxy, method, args) -> null);
+        this.actionSource = Stubs.stub(IActionSource.class, (proxy, method, args) -> null);
+
+        this.computerAccesses = new IComputerAccess[this.computers];
+
+        for (int i = 0; i < this.computers; i++) {
+            int id = i;
+
+            this.computerAccesses[i] = Stubs.stub(IComputerAccess.class, (proxy, method, args) -> switch (method.getName()) {
+                case "getID" -> id;
+                case "queueEvent" -> {
+                    this.blackhole.consume(args);
+                    yield null;
+                }
+                default -> null;
+            });
+        }
+    }
+
+    @Setup(Level.Invocation)
+    public void setupInvocation() {
+        this.eventRouter = new EventRouter();
+        for (IComputerAccess computer : this.computerAccesses) this.eventRouter.attach(computer);
+
+        this.craftingJobs = new CraftingJobRegistry();
+        this.craftingJobStarter = new CraftingJobStarter(this.requester, this.craftingJobs, new CraftingJobStarter.Listener() {
+
+            @Override
+            public boolean onCompleted(PendingCraftingJob job) {
+                return true;
+            }
+
+            @Override
+            public void onStarted(CraftingJob job) {
+                eventRouter.dispatch(null, job.id(), "ae2cc:crafting_started", new Object[] { job.id().toString() });
+            }
+
+            @Override
+            public void onCancelled(UUID jobID, String reason) {
+                eventRouter.dispatch(null, jobID, "ae2cc:crafting_cancelled", new Object[] { jobID.toString(), reason });
+                eventRouter.release(jobID);
+            }
+
+        });
+
+        // The key is only needed to schedule a job, and keys cannot be created without bootstrapping the game.
+        CraftingRequest request = new CraftingRequest(null, 1, null);
+
+        for (int i = 0; i < this.jobs; i++) {
+            UUID jobID = UUID.randomUUID();
+
+            // Jobs are scheduled by the attached computers in turn and are thus owned by one of them each.
+            this.eventRouter.claim(jobID, this.computerAccesses[i % this.computerAccesses.length]);
+            this.craftingJobStarter.complete(new PendingCraftingJob(jobID, request, this.futureCraftingPlan));
+        }
+
+        this.scheduledWork = new ScheduledWork();
+    }
+
+    /**
+     * Runs server ticks until all completed jobs have been started and all events have been delivered.
+     *
+     * @return  the number of ticks that were required
+     */
+    @Benchmark
+    public int startCompletedJobs() {
+        MainThreadScheduler.schedule(this.scheduledWork);
+
+        int ticks = 0;
+        boolean hasRemainingEvents;
+
+        do {
+            // tickingRequest delivers buffered events, the scheduler runs at the end of the server tick.
+            hasRemainingEvents = this.eventRouter.deliver();
+            MainThreadScheduler.tick();
+
+            ticks++;
+        } while (hasRemainingEvents || this.scheduledWork.hasScheduledWork());
+
+        return ticks;
+    }
+
+    /**
+     * Stands in for the adapter's scheduled work which starts completed jobs before anything else.
+     */
+    private final class ScheduledWork implements MainThreadScheduler.Client {
+
+        @Override
+        public boolean runScheduledWork(long tick) {
+            return craftingJobStarter.startNext(craftingService, actionSource, tick);
+        }
+
+        @Override
+        public boolean hasScheduledWork() {
+            return craftingJobStarter.hasCompletedJobs();
+        }
+
+    }
+
+}
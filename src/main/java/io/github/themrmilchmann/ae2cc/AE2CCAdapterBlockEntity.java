@@ -24,31 +24,35 @@ package io.github.themrmilchmann.ae2cc;
 import appeng.api.config.Actionable;
 import appeng.api.networking.IGrid;
 import appeng.api.networking.IGridNode;
+import appeng.api.networking.IStackWatcher;
 import appeng.api.networking.crafting.*;
-import appeng.api.networking.energy.IEnergyService;
 import appeng.api.networking.security.IActionSource;
+import appeng.api.networking.storage.IStorageWatcherNode;
 import appeng.api.networking.ticking.IGridTickable;
 import appeng.api.networking.ticking.TickRateModulation;
 import appeng.api.networking.ticking.TickingRequest;
 import appeng.api.stacks.*;
-import appeng.api.storage.MEStorage;
 import appeng.api.storage.StorageHelper;
 import appeng.blockentity.grid.AENetworkBlockEntity;
-import appeng.me.cluster.implementations.CraftingCPUCluster;
 import appeng.me.helpers.IGridConnectedBlockEntity;
 import com.google.common.collect.ImmutableSet;
+import dan200.computercraft.api.lua.ILuaCallback;
+import dan200.computercraft.api.lua.ILuaContext;
 import dan200.computercraft.api.lua.LuaException;
 import dan200.computercraft.api.lua.LuaFunction;
+import dan200.computercraft.api.lua.MethodResult;
 import dan200.computercraft.api.peripheral.IComputerAccess;
 import dan200.computercraft.api.peripheral.IPeripheral;
 import net.minecraft.core.BlockPos;
+import net.minecraft.core.Direction;
 import net.minecraft.core.registries.BuiltInRegistries;
 import net.minecraft.nbt.CompoundTag;
 import net.minecraft.nbt.ListTag;
 import net.minecraft.nbt.Tag;
-import net.minecraft.network.chat.Component;
 import net.minecraft.resources.ResourceLocation;
+import net.minecraft.server.MinecraftServer;
 import net.minecraft.world.item.Item;
+import net.minecraft.world.level.Level;
 import net.minecraft.world.level.block.state.BlockState;
 import net.minecraft.world.level.material.Fluid;
 import org.apache.logging.log4j.LogManager;
@@ -57,48 +61,163 @@ import org.apache.logging.log4j.Logger;
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Future;
-import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.locks.ReentrantLock;
 import java.util.stream.Stream;
-import java.util.stream.StreamSupport;
 
-public final class AE2CCAdapterBlockEntity extends AENetworkBlockEntity implements ICraftingRequester, IGridConnectedBlockEntity, IGridTickable {
-
-    private static final AtomicBoolean INTERNAL_ASSUMPTION_FAILED = new AtomicBoolean(false);
+public final class AE2CCAdapterBlockEntity extends AENetworkBlockEntity implements ICraftingRequester, IGridConnectedBlockEntity, IGridTickable, IStorageWatcherNode {
 
     private static final Logger LOGGER = LogManager.getLogger();
 
-    private static Map<String, Object> deriveLuaRepresentation(AEKey key) {
-        String displayName, id, type;
+    /*
+     * The adapters that are currently loaded. Only ever accessed from the server thread. Weak references are used so
+     * that an adapter that is discarded without being removed properly cannot leak.
+     */
+    private static final Set<AE2CCAdapterBlockEntity> LOADED_ADAPTERS = Collections.newSetFromMap(new WeakHashMap<>());
+
+    /**
+     * Returns the adapters that are currently loaded. This method must only be called from the server thread.
+     */
+    static List<AE2CCAdapterBlockEntity> loadedAdapters() {
+        return List.copyOf(LOADED_ADAPTERS);
+    }
+
+    private static AEKey resolveKey(String type, String id) throws LuaException {
+        ResourceLocation resourceLocation = ResourceLocation.tryParse(id);
+        if (resourceLocation == null) throw new LuaException("Invalid ID: '" + id + "'");
 
-        if (key instanceof AEFluidKey) {
-            type = "fluid";
-        } else if (key instanceof AEItemKey) {
-            type = "item";
-        } else {
-            throw new IllegalArgumentException();
+        return switch (type) {
+            case "fluid" -> {
+                Fluid fluid = BuiltInRegistries.FLUID.getOptional(resourceLocation).orElseThrow(() -> new LuaException("Fluid does not exist: " + resourceLocation));
+                yield AEFluidKey.of(fluid);
+            }
+            case "item" -> {
+                Item item = BuiltInRegistries.ITEM.getOptional(resourceLocation).orElseThrow(() -> new LuaException("Item does not exist: " + resourceLocation));
+                yield AEItemKey.of(item);
+            }
+            default -> throw new LuaException("Invalid type: '" + type + "' (Valid types are 'fluid' and 'item')");
+        };
+    }
+
+    private static AEKey resolveKey(Map<?, ?> table) throws LuaException {
+        return resolveKey(LuaTables.getString(table, "type"), LuaTables.getString(table, "id"));
+    }
+
+    /**
+     * Validates the given amount as passed from Lua and returns the amount of the given key as it is stored in the ME
+     * system.
+     *
+     * @see ObjectQuery#fromLuaAmount(AEKey, long)
+     */
+    private static long resolveAmount(AEKey key, long amount) throws LuaException {
+        if (amount <= 0) throw new LuaException("Invalid amount: " + amount + " (must be positive)");
+
+        try {
+            return ObjectQuery.fromLuaAmount(key, amount);
+        } catch (ArithmeticException e) {
+            throw new LuaException("Invalid amount: " + amount + " (too large)");
         }
+    }
 
-        id = key.getId().toString();
-        displayName = key.getDisplayName().getString();
+    private static Set<String> resolveEventTypes(Map<?, ?> eventTypes) throws LuaException {
+        Set<String> events = new HashSet<>();
 
-        return Map.of(
-            "type", type,
-            "id", id,
-            "displayName", displayName
-        );
+        for (String event : LuaTables.getStrings(eventTypes)) {
+            if (!EventRouter.EVENT_TYPES.contains(event)) throw new LuaException("Unknown event type: " + event);
+            events.add(event);
+        }
+
+        return events;
     }
 
     private final ReentrantLock pendingJobLock = new ReentrantLock();
-    private final List<PendingCraftingJob> pendingJobs = new ArrayList<>();
+    private final Map<UUID, PendingCraftingJob> pendingJobs = new LinkedHashMap<>();
+
+    /*
+     * The most recent pending job for each distinct crafting request. Used to attach identical requests to a job whose
+     * calculation is still running instead of starting another calculation. Guarded by pendingJobLock.
+     */
+    private final Map<CraftingRequest, PendingCraftingJob> pendingJobsByRequest = new HashMap<>();
+
+    /*
+     * Pending jobs that have been restored from NBT but whose crafting calculation has not been restarted yet. The
+     * calculations are restarted from the first tick after the adapter has been (re)loaded. Guarded by pendingJobLock.
+     */
+    private final Map<UUID, CraftingRequest> restoredPendingJobs = new LinkedHashMap<>();
+
+    private final CraftingJobRegistry craftingJobs = new CraftingJobRegistry();
+
+    /*
+     * Changes to the grid inventory that have not been reported yet. Only ever accessed from the server thread (the
+     * storage service reports changes during the grid tick and the changes are flushed from tickingRequest).
+     */
+    private final Map<AEKey, Long> pendingInventoryChanges = new LinkedHashMap<>();
+
+
+    private final CraftingJobStarter craftingJobStarter = new CraftingJobStarter(this, this.craftingJobs, new CraftingJobStarter.Listener() {
+
+        @Override
+        public boolean onCompleted(PendingCraftingJob job) {
+            pendingJobLock.lock();
+
+            try {
+                /*
+                 * The job might have been removed (e.g. because the block entity was reloaded) while its calculation
+                 * was still running. After a reload, a restored job with the same ID may have taken its place.
+                 */
+                if (!pendingJobs.remove(job.id(), job)) return false;
+                pendingJobsByRequest.remove(job.request(), job);
+            } finally {
+                pendingJobLock.unlock();
+            }
+
+            // Whether the job is started or cancelled, the set of persisted jobs changes.
+            setChanged();
+            return true;
+        }
+
+        @Override
+        public void onStarted(CraftingJob job) {
+            peripheral.notifyJob(job.id(), "ae2cc:crafting_started", job.id().toString());
+        }
 
-    private final ReentrantLock craftingJobLock = new ReentrantLock();
-    private final List<CraftingJob> craftingJobs = new ArrayList<>();
+        @Override
+        public void onCancelled(UUID jobID, String reason) {
+            cancelJob(jobID, reason);
+        }
 
-    private record PendingCraftingJob(UUID id, Future<ICraftingPlan> futureCraftingPlan, @Nullable String cpu) {}
-    private record CraftingJob(UUID id, ICraftingLink link) {}
+    });
+    private final CraftingProgressTracker craftingProgressTracker = new CraftingProgressTracker();
+    private final EnergyHistory energyHistory = new EnergyHistory();
+    private final Watchlist watchlist = new Watchlist();
+    private final Thresholds thresholds = new Thresholds();
+    private final StockingRules stockingRules = new StockingRules();
+    private final ObjectTransfers transfers = new ObjectTransfers();
+    private final AdapterMetrics metrics = new AdapterMetrics();
+
+    /*
+     * The interval (in ticks) in which this adapter requests snapshots from the grid's GridQueryService. Snapshots are
+     * disabled if the interval is 0.
+     */
+    private volatile int snapshotInterval;
+
+    /*
+     * The version of the grid's crafting state. The version is incremented whenever the set of craftable objects
+     * changes or the adapter joins a different grid, and is used to invalidate cached crafting plans.
+     */
+    private volatile long craftingStateVersion;
+    private final CraftingPlanCache craftingPlanCache = new CraftingPlanCache();
+
+    /*
+     * Whether sampling is due. Sampling is requested from tickingRequest and performed by the scheduler. Only ever
+     * accessed from the server thread.
+     */
+    private boolean samplingRequested;
+    private long lastTransferTick = Long.MIN_VALUE;
+
+    private final ScheduledWork scheduledWork = new ScheduledWork();
 
     private final AdapterPeripheral peripheral = new AdapterPeripheral();
 
@@ -107,100 +226,405 @@ public final class AE2CCAdapterBlockEntity extends AENetworkBlockEntity implemen
 
         this.getMainNode().addService(ICraftingRequester.class, this);
         this.getMainNode().addService(IGridTickable.class, this);
+        this.getMainNode().addService(IStorageWatcherNode.class, this);
+        this.getMainNode().addService(ICraftingWatcherNode.class, new CraftingStateWatcher());
+    }
+
+    @Override
+    public void updateWatcher(IStackWatcher newWatcher) {
+        newWatcher.setWatchAll(true);
+    }
+
+    @Override
+    public void onStackChange(AEKey what, long amount) {
+        if (!(what instanceof AEFluidKey || what instanceof AEItemKey)) return;
+
+        GridQueryService queryService = this.getQueryService();
+        if (queryService != null) queryService.onInventoryChange();
+
+        boolean wake = this.thresholds.onStackChange(what, amount);
+
+        if (this.peripheral.hasSubscribers("ae2cc:inventory_changed")) {
+            wake |= this.pendingInventoryChanges.isEmpty();
+            this.pendingInventoryChanges.put(what, amount);
+        }
+
+        if (wake) this.wake();
+    }
+
+    private void flushInventoryChanges() {
+        if (this.pendingInventoryChanges.isEmpty()) return;
+
+        if (!this.peripheral.hasSubscribers("ae2cc:inventory_changed")) {
+            this.pendingInventoryChanges.clear();
+            return;
+        }
+
+        List<Map<String, Object>> changes = new ArrayList<>(this.pendingInventoryChanges.size());
+
+        for (Map.Entry<AEKey, Long> entry : this.pendingInventoryChanges.entrySet()) {
+            AEKey key = entry.getKey();
+
+            changes.add(LuaKeyCache.get(key, entry.getValue()));
+        }
+
+        this.pendingInventoryChanges.clear();
+        this.peripheral.notify("ae2cc:inventory_changed", changes);
     }
 
     @Override
     public TickingRequest getTickingRequest(IGridNode node) {
-        return new TickingRequest(10, 10, false, false);
+        return new TickingRequest(1, 10, false, true);
     }
 
     @Override
     public TickRateModulation tickingRequest(IGridNode node, int ticksSinceLastCall) {
-        this.pendingJobLock.lock();
+        long start = System.nanoTime();
 
         try {
-            ICraftingService craftingService = node.getGrid().getCraftingService();
+            return this.tick(node);
+        } finally {
+            this.metrics.record("tickingRequest", start, true);
+        }
+    }
 
-            Iterator<PendingCraftingJob> pendingJobIterator = this.pendingJobs.iterator();
+    private TickRateModulation tick(IGridNode node) {
+        this.flushInventoryChanges();
+        this.resumeRestoredPendingJobs(node.getGrid());
 
-            while (pendingJobIterator.hasNext()) {
-                PendingCraftingJob pendingJob = pendingJobIterator.next();
-                Future<ICraftingPlan> futureCraftingPlan = pendingJob.futureCraftingPlan();
+        long gameTime = Objects.requireNonNull(this.level).getGameTime();
 
-                if (futureCraftingPlan.isCancelled()) {
-                    pendingJobIterator.remove();
-                    this.peripheral.notify("ae2cc:crafting_cancelled", pendingJob.id().toString(), "CANCELLED");
+        if (this.thresholds.hasDirtyKeys()) {
+            boolean changed = this.thresholds.evaluate(node.getGrid().getStorageService().getCachedInventory(), (key, state, amount) -> {
+                Map<String, Object> data = LuaKeyCache.get(key);
+                this.peripheral.notify("ae2cc:threshold_crossed", data.get("type"), data.get("id"), state.name(), amount);
+            });
 
-                    continue;
-                }
+            if (changed) this.setChanged();
+        }
 
-                if (!futureCraftingPlan.isDone()) continue;
-                pendingJobIterator.remove();
+        if (!this.stockingRules.isEmpty()) {
+            IGrid grid = node.getGrid();
 
-                ICraftingPlan craftingPlan;
+            boolean changed = this.stockingRules.check(grid.getStorageService().getCachedInventory(), gameTime, this::isInFlight, (key, amount, cpu) ->
+                this.scheduleCrafting(grid, List.of(new CraftingRequest(key, amount, cpu)), false, null).get(0)
+            );
 
-                try {
-                    craftingPlan = futureCraftingPlan.get();
-                } catch (InterruptedException | ExecutionException e) {
-                    throw new RuntimeException(e);
-                }
+            if (changed) this.setChanged();
+        }
 
-                ICraftingCPU craftingCPU = null;
+        // Sampling is deferred to the scheduler as it is not latency-critical.
+        if (this.peripheral.hasAttachedComputers() || !this.watchlist.isEmpty() || (this.craftingProgressTracker.isEnabled() && !this.craftingJobs.jobs().isEmpty())) {
+            this.samplingRequested = true;
+        }
 
-                if (pendingJob.cpu() != null) {
-                    craftingCPU = craftingService.getCpus().stream().filter(it -> {
-                        Component cpuName = it.getName();
-                        return cpuName != null && pendingJob.cpu().equals(cpuName.getString());
-                    }).findAny().orElse(null);
+        if (this.scheduledWork.hasScheduledWork()) MainThreadScheduler.schedule(this.scheduledWork);
 
-                    if (craftingCPU == null) {
-                        this.peripheral.notify("ae2cc:crafting_cancelled", pendingJob.id().toString(), "CPU_NOT_FOUND");
-                        continue;
-                    }
-                }
+        // Deliver buffered events as quickly as possible without flooding the computers.
+        if (this.peripheral.deliverEvents()) return TickRateModulation.URGENT;
 
-                IActionSource actionSource = IActionSource.ofMachine(this);
-                ICraftingSubmitResult craftingSubmitResult = node.getGrid().getCraftingService().submitJob(craftingPlan, this, craftingCPU, false, actionSource);
-                if (!craftingSubmitResult.successful()) {
-                    String reason = switch (Objects.requireNonNull(craftingSubmitResult.errorCode())) {
-                        case INCOMPLETE_PLAN -> "INCOMPLETE_PLAN";
-                        case NO_CPU_FOUND -> "NO_CPU_FOUND";
-                        case NO_SUITABLE_CPU_FOUND -> "NO_SUITABLE_CPU_FOUND";
-                        case CPU_BUSY -> "CPU_BUSY";
-                        case CPU_OFFLINE -> "CPU_OFFLINE";
-                        case CPU_TOO_SMALL -> "CPU_TOO_SMALL";
-                        case MISSING_INGREDIENT -> "MISSING_INGREDIENT";
-                    };
-
-                    this.peripheral.notify("ae2cc:crafting_cancelled", pendingJob.id().toString(), reason);
-                    continue;
-                }
+        /*
+         * There is no point in ticking while nothing is happening. The node is woken up as soon as there is work
+         * (i.e. an event has been queued, or the inventory has changed). Completed crafting calculations and transfers
+         * are handled by the MainThreadScheduler.
+         */
+        return this.hasPeriodicWork() ? TickRateModulation.IDLE : TickRateModulation.SLEEP;
+    }
 
-                ICraftingLink craftingLink = craftingSubmitResult.link();
-                assert craftingLink != null;
+    private void sample(IGrid grid) {
+        long gameTime = Objects.requireNonNull(this.level).getGameTime();
 
-                CraftingJob craftingJob = new CraftingJob(pendingJob.id(), craftingLink);
+        if (this.peripheral.hasAttachedComputers()) {
+            this.energyHistory.sample(grid.getEnergyService(), gameTime);
+        }
 
-                craftingJobLock.lock();
+        if (!this.watchlist.isEmpty()) {
+            this.watchlist.sample(grid.getStorageService().getCachedInventory(), gameTime);
+        }
 
-                try {
-                    craftingJobs.add(craftingJob);
-                    this.peripheral.notify("ae2cc:crafting_started", craftingJob.id().toString());
-                } finally {
-                    craftingJobLock.unlock();
+        this.craftingProgressTracker.sample(
+            grid.getCraftingService(),
+            this.craftingJobs.jobs(),
+            gameTime,
+            (job, jobStatus) -> {
+                String jobID = job.id().toString();
+                this.peripheral.notifyCoalesced("ae2cc:crafting_progress:" + jobID, job.id(), "ae2cc:crafting_progress", jobID, jobStatus.progress(), jobStatus.totalItems(), jobStatus.elapsedTimeNanos());
+            }
+        );
+    }
+
+    private void processTransfers(IGrid grid) {
+        this.transfers.process(
+            grid.getStorageService().getInventory(),
+            IActionSource.ofMachine(this),
+            Objects.requireNonNull(this.level),
+            this.worldPosition,
+            (id, results) -> this.peripheral.notifyJobFinished(id, "ae2cc:transfer_done", id.toString(), results)
+        );
+    }
+
+    private boolean hasPeriodicWork() {
+        if (!this.pendingInventoryChanges.isEmpty()) return true;
+        if (this.peripheral.hasAttachedComputers()) return true; // Energy history
+        if (!this.watchlist.isEmpty()) return true;
+        if (!this.stockingRules.isEmpty()) return true;
+        return this.craftingProgressTracker.isEnabled() && !this.craftingJobs.jobs().isEmpty();
+    }
+
+    /**
+     * Fires the {@code ae2cc:crafting_cancelled} event for the job with the given ID and lets the stocking rules back
+     * off if the job was scheduled by one.
+     */
+    private void cancelJob(UUID jobID, String reason) {
+        this.stockingRules.onJobFinished(jobID, false, Objects.requireNonNull(this.level).getGameTime());
+        this.peripheral.notifyJobFinished(jobID, "ae2cc:crafting_cancelled", jobID.toString(), reason);
+    }
+
+    /**
+     * Schedules crafting jobs for the given requests and returns the IDs of the jobs in the order of the requests.
+     *
+     * <p>If {@code coalesce} is set, requests are attached to an identical pending job whose calculation is still
+     * running (if any). In that case, the ID of the existing job is returned and no new calculation is started.</p>
+     *
+     * @param owner the computer that scheduled the jobs and receives their events, or {@code null} if the jobs were
+     *              scheduled by the adapter itself
+     */
+    private List<UUID> scheduleCrafting(IGrid grid, List<CraftingRequest> requests, boolean coalesce, @Nullable IComputerAccess owner) {
+        List<UUID> jobIDs = new ArrayList<>(requests.size());
+        List<PendingCraftingJob> newJobs = new ArrayList<>(requests.size());
+
+        /*
+         * The lock is held while the calculations are started so that identical requests from multiple computers
+         * cannot race past each other and start duplicate calculations.
+         */
+        this.pendingJobLock.lock();
+
+        try {
+            for (CraftingRequest request : requests) {
+                PendingCraftingJob pendingJob = coalesce ? this.pendingJobsByRequest.get(request) : null;
+
+                if (pendingJob == null) {
+                    pendingJob = this.beginCrafting(grid, UUID.randomUUID(), request);
+
+                    this.pendingJobs.put(pendingJob.id(), pendingJob);
+                    this.pendingJobsByRequest.put(request, pendingJob);
+                    newJobs.add(pendingJob);
+
+                    // Ownership is claimed before the calculation can complete to make sure no job event is misrouted.
+                    if (owner != null) this.peripheral.eventRouter.claim(pendingJob.id(), owner);
+                } else if (owner != null) {
+                    // Jobs without an owner (e.g. those of stocking rules) keep broadcasting their events.
+                    this.peripheral.eventRouter.claimIfOwned(pendingJob.id(), owner);
                 }
+
+                jobIDs.add(pendingJob.id());
+            }
+        } finally {
+            this.pendingJobLock.unlock();
+        }
+
+        this.watchCalculations(newJobs);
+        if (!newJobs.isEmpty()) this.runOnServerThread(this::setChanged);
+
+        return jobIDs;
+    }
+
+    /**
+     * Restarts the crafting calculations of the pending jobs that have been restored from NBT. The jobs keep their IDs.
+     */
+    private void resumeRestoredPendingJobs(IGrid grid) {
+        List<PendingCraftingJob> resumedJobs;
+
+        this.pendingJobLock.lock();
+
+        try {
+            if (this.restoredPendingJobs.isEmpty()) return;
+            resumedJobs = new ArrayList<>(this.restoredPendingJobs.size());
+
+            for (Map.Entry<UUID, CraftingRequest> entry : this.restoredPendingJobs.entrySet()) {
+                PendingCraftingJob pendingJob = this.beginCrafting(grid, entry.getKey(), entry.getValue());
+
+                this.pendingJobs.put(pendingJob.id(), pendingJob);
+                this.pendingJobsByRequest.put(pendingJob.request(), pendingJob);
+                resumedJobs.add(pendingJob);
             }
 
-            return this.pendingJobs.isEmpty() ? TickRateModulation.IDLE : TickRateModulation.FASTER;
+            this.restoredPendingJobs.clear();
+        } finally {
+            this.pendingJobLock.unlock();
+        }
+
+        this.watchCalculations(resumedJobs);
+    }
+
+    private void watchCalculations(List<PendingCraftingJob> jobs) {
+        for (PendingCraftingJob job : jobs) {
+            CraftingCalculationWatcher.watch(job.futureCraftingPlan(), () -> {
+                this.craftingJobStarter.complete(job);
+                this.scheduleWork();
+            });
+        }
+    }
+
+    private PendingCraftingJob beginCrafting(IGrid grid, UUID id, CraftingRequest request) {
+        AEKey key = request.key();
+        long amount = request.amount();
+
+        Future<ICraftingPlan> futureCraftingPlan;
+
+        // Reuse the plan of a recent preview for the same request instead of calculating it again.
+        ICraftingPlan cachedPlan = this.craftingPlanCache.take(grid, key, amount, this.craftingStateVersion);
+
+        if (cachedPlan != null) {
+            futureCraftingPlan = CompletableFuture.completedFuture(cachedPlan);
+        } else {
+            futureCraftingPlan = this.beginCraftingCalculation(grid, key, amount);
+        }
+
+        return new PendingCraftingJob(id, request, futureCraftingPlan);
+    }
+
+    private Future<ICraftingPlan> beginCraftingCalculation(IGrid grid, AEKey key, long amount) {
+        IActionSource actionSource = IActionSource.ofMachine(this);
+
+        return grid.getCraftingService().beginCraftingCalculation(
+            this.level,
+            () -> actionSource,
+            key,
+            amount,
+            CalculationStrategy.CRAFT_LESS
+        );
+    }
+
+    private void onPreviewCalculated(UUID previewID, IGrid grid, AEKey key, long amount, long version, Future<ICraftingPlan> futureCraftingPlan) {
+        String id = previewID.toString();
+
+        if (futureCraftingPlan.isCancelled()) {
+            this.peripheral.notifyJobFinished(previewID, "ae2cc:crafting_preview", id, null, "CANCELLED");
+            return;
+        }
+
+        ICraftingPlan craftingPlan;
+
+        try {
+            craftingPlan = futureCraftingPlan.get();
+        } catch (InterruptedException | ExecutionException e) {
+            LOGGER.warn("Crafting calculation for preview failed", e);
+            this.peripheral.notifyJobFinished(previewID, "ae2cc:crafting_preview", id, null, "FAILED");
+            return;
+        }
+
+        // Simulated plans cannot be submitted, so there is no point in caching them.
+        if (!craftingPlan.simulation()) {
+            this.craftingPlanCache.put(grid, key, amount, version, craftingPlan);
+        }
+
+        GenericStack output = craftingPlan.finalOutput();
+
+        this.peripheral.notifyJobFinished(previewID, "ae2cc:crafting_preview", id, Map.of(
+            "bytes", craftingPlan.bytes(),
+            "simulation", craftingPlan.simulation(),
+            "multiplePaths", craftingPlan.multiplePaths(),
+            "output", LuaKeyCache.get(output.what(), output.amount()),
+            "usedObjects", LuaKeyCache.getAll(craftingPlan.usedItems()),
+            "missingObjects", LuaKeyCache.getAll(craftingPlan.missingItems()),
+            "emittedObjects", LuaKeyCache.getAll(craftingPlan.emittedItems())
+        ));
+    }
+
+    private boolean isInFlight(UUID jobID) {
+        this.pendingJobLock.lock();
+
+        try {
+            if (this.pendingJobs.containsKey(jobID) || this.restoredPendingJobs.containsKey(jobID)) return true;
         } finally {
             this.pendingJobLock.unlock();
         }
+
+        return this.craftingJobs.get(jobID) != null;
+    }
+
+    /**
+     * Schedules this adapter's deferred work with the {@link MainThreadScheduler}. This method may be called from any
+     * thread.
+     */
+    private void scheduleWork() {
+        this.runOnServerThread(() -> MainThreadScheduler.schedule(this.scheduledWork));
+    }
+
+    /**
+     * Wakes this adapter up if it is sleeping. This method may be called from any thread.
+     */
+    private void wake() {
+        this.runOnServerThread(() -> this.getMainNode().ifPresent((grid, node) -> grid.getTickManager().wakeDevice(node)));
+    }
+
+    private boolean isOnServerThread() {
+        Level level = this.getLevel();
+        if (level == null) return false;
+
+        MinecraftServer server = level.getServer();
+        return server != null && server.isSameThread();
+    }
+
+    private void runOnServerThread(Runnable action) {
+        Level level = this.getLevel();
+        if (level == null) return;
+
+        MinecraftServer server = level.getServer();
+        if (server == null) return;
+
+        if (server.isSameThread()) {
+            action.run();
+        } else {
+            server.execute(action);
+        }
     }
 
     public IPeripheral asPeripheral() {
         return this.peripheral;
     }
 
+    AdapterMetrics metrics() {
+        return this.metrics;
+    }
+
+    /**
+     * Returns the IDs of the computers that are currently attached to this adapter.
+     */
+    List<Integer> attachedComputerIDs() {
+        return this.peripheral.eventRouter.eventQueues().stream()
+            .map(eventQueue -> eventQueue.computer().getID())
+            .distinct()
+            .toList();
+    }
+
+    /**
+     * Returns the interval (in ticks) in which this adapter requests snapshots of its grid, or {@code 0} if it does not
+     * currently need snapshots.
+     */
+    int getRequestedSnapshotInterval() {
+        return this.peripheral.hasAttachedComputers() ? this.snapshotInterval : 0;
+    }
+
+    @Nullable
+    private GridQueryService getQueryService() {
+        IGrid grid = this.getMainNode().getGrid();
+        return grid != null ? grid.getService(GridQueryService.class) : null;
+    }
+
+    @Override
+    public void onReady() {
+        super.onReady();
+        if (this.level != null && !this.level.isClientSide()) LOADED_ADAPTERS.add(this);
+    }
+
+    @Override
+    public void setRemoved() {
+        super.setRemoved();
+        LOADED_ADAPTERS.remove(this);
+    }
+
     @Override
     protected Item getItemFromBlockEntity() {
         return AE2CCBridge.ADAPTER_BLOCK.asItem();
@@ -208,7 +632,7 @@ public final class AE2CCAdapterBlockEntity extends AENetworkBlockEntity implemen
 
     @Override
     public ImmutableSet<ICraftingLink> getRequestedJobs() {
-        return this.craftingJobs.stream().map(CraftingJob::link).collect(ImmutableSet.toImmutableSet());
+        return this.craftingJobs.links();
     }
 
     @Override
@@ -218,20 +642,13 @@ public final class AE2CCAdapterBlockEntity extends AENetworkBlockEntity implemen
 
     @Override
     public void jobStateChange(ICraftingLink link) {
-        this.craftingJobLock.lock();
-
-        try {
-            this.craftingJobs.removeIf(job -> {
-                if (job.link() == link) {
-                    this.peripheral.notify("ae2cc:crafting_done", job.id().toString());
-                    return true;
-                }
+        CraftingJob job = this.craftingJobs.remove(link);
+        if (job == null) return;
 
-                return false;
-            });
-        } finally {
-            this.craftingJobLock.unlock();
-        }
+        this.craftingProgressTracker.remove(job.id());
+        this.stockingRules.onJobFinished(job.id(), !link.isCanceled(), Objects.requireNonNull(this.level).getGameTime());
+        this.peripheral.notifyJobFinished(job.id(), "ae2cc:crafting_done", job.id().toString());
+        this.setChanged();
     }
 
     @Nullable
@@ -255,46 +672,200 @@ public final class AE2CCAdapterBlockEntity extends AENetworkBlockEntity implemen
             craftingJobs.add(new CraftingJob(id, link));
         }
 
-        this.craftingJobLock.lock();
+        this.craftingJobs.replaceAll(craftingJobs);
+
+        ListTag pendingJobsTag = data.getList("pendingJobs", Tag.TAG_COMPOUND);
+        Map<UUID, CraftingRequest> pendingJobs = new LinkedHashMap<>();
+
+        for (int i = 0; i < pendingJobsTag.size(); i++) {
+            CompoundTag jobTag = pendingJobsTag.getCompound(i);
+
+            AEKey key = AEKey.fromTagGeneric(jobTag.getCompound("key"));
+            if (key == null) continue;
+
+            String cpu = jobTag.contains("cpu", Tag.TAG_STRING) ? jobTag.getString("cpu") : null;
+            pendingJobs.put(jobTag.getUUID("id"), new CraftingRequest(key, jobTag.getLong("amount"), cpu));
+        }
+
+        this.pendingJobLock.lock();
 
         try {
-            this.craftingJobs.clear();
-            this.craftingJobs.addAll(craftingJobs);
+            /*
+             * Calculations that are still running belong to the previous state of the adapter. They are discarded when
+             * they complete (see tickingRequest) and restarted for the restored jobs instead.
+             */
+            this.pendingJobs.clear();
+            this.pendingJobsByRequest.clear();
+            this.restoredPendingJobs.clear();
+            this.restoredPendingJobs.putAll(pendingJobs);
         } finally {
-            this.craftingJobLock.unlock();
+            this.pendingJobLock.unlock();
+        }
+
+        this.watchlist.load(data.getList("watchlist", Tag.TAG_COMPOUND));
+        this.thresholds.load(data.getList("thresholds", Tag.TAG_COMPOUND));
+        this.stockingRules.load(data.getList("stockingRules", Tag.TAG_COMPOUND));
+
+        if (data.contains("progressInterval", Tag.TAG_INT)) {
+            this.craftingProgressTracker.setInterval(data.getInt("progressInterval"));
+        }
+
+        this.snapshotInterval = Math.max(0, data.getInt("snapshotInterval"));
+
+        if (data.contains("transferBudget", Tag.TAG_INT)) {
+            this.transfers.setBudget(Math.max(1, data.getInt("transferBudget")));
         }
     }
 
     @Override
     public void saveAdditional(CompoundTag data) {
+        long start = System.nanoTime();
         super.saveAdditional(data);
 
         ListTag jobsTag = new ListTag();
 
-        this.craftingJobLock.lock();
+        for (CraftingJob job : this.craftingJobs.jobs()) {
+            CompoundTag jobTag = new CompoundTag();
+            jobTag.putUUID("id", job.id());
 
-        try {
-            for (CraftingJob job : this.craftingJobs) {
-                CompoundTag jobTag = new CompoundTag();
-                jobTag.putUUID("id", job.id());
+            CompoundTag linkTag = new CompoundTag();
+            job.link().writeToNBT(linkTag);
 
-                CompoundTag linkTag = new CompoundTag();
-                job.link().writeToNBT(linkTag);
+            jobTag.put("link", linkTag);
+            jobsTag.add(jobTag);
+        }
+
+        ListTag pendingJobsTag = new ListTag();
+
+        this.pendingJobLock.lock();
 
-                jobTag.put("link", linkTag);
+        try {
+            for (PendingCraftingJob job : this.pendingJobs.values()) {
+                pendingJobsTag.add(savePendingJob(job.id(), job.request()));
+            }
+
+            for (Map.Entry<UUID, CraftingRequest> entry : this.restoredPendingJobs.entrySet()) {
+                pendingJobsTag.add(savePendingJob(entry.getKey(), entry.getValue()));
             }
         } finally {
-            this.craftingJobLock.unlock();
+            this.pendingJobLock.unlock();
         }
 
         data.put("jobs", jobsTag);
+        data.put("pendingJobs", pendingJobsTag);
+        data.putInt("progressInterval", this.craftingProgressTracker.getInterval());
+        data.putInt("snapshotInterval", this.snapshotInterval);
+        data.putInt("transferBudget", this.transfers.getBudget());
+        data.put("watchlist", this.watchlist.save());
+        data.put("thresholds", this.thresholds.save());
+        data.put("stockingRules", this.stockingRules.save());
+
+        this.metrics.record("saveAdditional", start, true);
+    }
+
+    private static CompoundTag savePendingJob(UUID id, CraftingRequest request) {
+        CompoundTag jobTag = new CompoundTag();
+        jobTag.putUUID("id", id);
+        jobTag.put("key", request.key().toTagGeneric());
+        jobTag.putLong("amount", request.amount());
+        if (request.cpu() != null) jobTag.putString("cpu", request.cpu());
+
+        return jobTag;
+    }
+
+    @FunctionalInterface
+    private interface GridQuery {
+
+        Object apply(GridView view) throws LuaException;
+
+    }
+
+    @FunctionalInterface
+    private interface LuaCall<T> {
+
+        T call() throws LuaException;
+
+    }
+
+    @FunctionalInterface
+    private interface LuaRunnable {
+
+        void run() throws LuaException;
+
+    }
+
+    private final class CraftingStateWatcher implements ICraftingWatcherNode {
+
+        @Override
+        public void updateWatcher(IStackWatcher newWatcher) {
+            newWatcher.setWatchAll(true);
+            craftingStateVersion++;
+        }
+
+        @Override
+        public void onRequestChange(AEKey what) {}
+
+        @Override
+        public void onCraftableChange(AEKey what) {
+            craftingStateVersion++;
+
+            GridQueryService queryService = getQueryService();
+            if (queryService != null) queryService.onCraftablesChange();
+        }
+
+    }
+
+    /**
+     * The work of the adapter that is run by the {@link MainThreadScheduler}. A single unit of work is starting one
+     * crafting job, processing the transfers of the tick (up to the transfer budget), or sampling.
+     */
+    private final class ScheduledWork implements MainThreadScheduler.Client {
+
+        @Override
+        public boolean runScheduledWork(long tick) {
+            IGrid grid = getMainNode().getGrid();
+            if (grid == null || isRemoved()) return false;
+
+            long start = System.nanoTime();
+
+            try {
+                if (craftingJobStarter.startNext(grid.getCraftingService(), IActionSource.ofMachine(AE2CCAdapterBlockEntity.this), Objects.requireNonNull(level).getGameTime())) {
+                    return true;
+                }
+
+                // The transfer budget applies per tick.
+                if (!transfers.isEmpty() && lastTransferTick != tick) {
+                    lastTransferTick = tick;
+                    processTransfers(grid);
+                    return true;
+                }
+
+                if (samplingRequested) {
+                    samplingRequested = false;
+                    sample(grid);
+                    return true;
+                }
+
+                return false;
+            } finally {
+                metrics.record("scheduledWork", start, true);
+            }
+        }
+
+        @Override
+        public boolean hasScheduledWork() {
+            // Work is resumed from tickingRequest once the adapter is connected to a grid again.
+            if (getMainNode().getGrid() == null || isRemoved()) return false;
+
+            return craftingJobStarter.hasCompletedJobs() || !transfers.isEmpty() || samplingRequested;
+        }
+
     }
 
     @SuppressWarnings("FinalMethodInFinalClass")
     public final class AdapterPeripheral implements IPeripheral {
 
-        private final ReentrantLock attachedComputerLock = new ReentrantLock();
-        private final List<IComputerAccess> attachedComputers = new ArrayList<>();
+        private final EventRouter eventRouter = new EventRouter();
 
         private final AE2CCAdapterBlockEntity blockEntity = AE2CCAdapterBlockEntity.this;
 
@@ -312,281 +883,682 @@ public final class AE2CCAdapterBlockEntity extends AENetworkBlockEntity implemen
 
         @Override
         public void attach(IComputerAccess computer) {
-            this.attachedComputerLock.lock();
+            this.eventRouter.attach(computer);
+            blockEntity.wake();
+        }
+
+        @Override
+        public void detach(IComputerAccess computer) {
+            this.eventRouter.detach(computer);
+
+            // The same computer may be attached to the adapter more than once (e.g. via a wired modem and directly).
+            if (!attachedComputerIDs().contains(computer.getID())) metrics.forget(computer.getID());
+        }
+
+        private boolean hasAttachedComputers() {
+            return !this.eventRouter.isEmpty();
+        }
+
+        private boolean hasSubscribers(String event) {
+            return this.eventRouter.hasSubscribers(event);
+        }
+
+        private void notify(String event, Object... data) {
+            this.notifyCoalesced(null, null, event, data);
+        }
+
+        /**
+         * Queues a job-scoped event. The event is routed to the computers that own the job (see {@link EventRouter}).
+         */
+        private void notifyJob(UUID jobID, String event, Object... data) {
+            this.notifyCoalesced(null, jobID, event, data);
+        }
+
+        /**
+         * Queues the final job-scoped event of a job and forgets the owners of the job afterward.
+         */
+        private void notifyJobFinished(UUID jobID, String event, Object... data) {
+            this.notifyCoalesced(null, jobID, event, data);
+            this.eventRouter.release(jobID);
+        }
+
+        /**
+         * Queues an event for the computers subscribed to it. Events are buffered and delivered from the adapter's
+         * grid tick.
+         *
+         * @param coalescingKey if not {@code null}, a not yet delivered event with the same key is replaced by this
+         *                      event
+         * @param jobID         the ID of the job the event concerns, or {@code null} if the event is not job-scoped
+         */
+        private void notifyCoalesced(@Nullable String coalescingKey, @Nullable UUID jobID, String event, Object... data) {
+            long start = System.nanoTime();
+
+            if (!this.eventRouter.dispatch(coalescingKey, jobID, event, data)) return;
+
+            blockEntity.wake();
+            metrics.record("notify", start, isOnServerThread());
+        }
+
+        /**
+         * Delivers buffered events to the attached computers.
+         *
+         * @return  whether there are buffered events left
+         */
+        private boolean deliverEvents() {
+            return this.eventRouter.deliver();
+        }
+
+        /**
+         * Runs the given query against the latest snapshot of the grid. The snapshot's version and age (in
+         * milliseconds) are returned as additional values.
+         *
+         * <p>If snapshots are disabled, the query is run against the grid on the server thread instead. In that case,
+         * the call is recorded once the result has been delivered to the computer, so that its latency includes the
+         * time spent waiting for the server thread.</p>
+         */
+        private MethodResult query(String operation, IComputerAccess computer, ILuaContext context, GridQuery query) throws LuaException {
+            int computerID = computer.getID();
+            long start = System.nanoTime();
+            boolean deferred = false;
 
             try {
-                attachedComputers.add(computer);
+                GridQueryService queryService = getQueryService();
+                if (queryService == null) throw new LuaException("Cannot connect to AE2 Network");
+
+                GridSnapshot snapshot = snapshotInterval > 0 ? queryService.latest() : null;
+                if (snapshot != null) return MethodResult.of(query.apply(snapshot), snapshot.version(), snapshot.age());
+
+                MethodResult result = context.executeMainThreadTask(() -> {
+                    long taskStart = System.nanoTime();
+
+                    try {
+                        IGrid grid = blockEntity.getMainNode().getGrid();
+                        if (grid == null) throw new LuaException("Cannot connect to AE2 Network");
+
+                        return new Object[] { query.apply(GridView.live(grid)) };
+                    } finally {
+                        metrics.recordMainThread(operation, computerID, System.nanoTime() - taskStart);
+                    }
+                });
+
+                deferred = true;
+                return whenDone(result, () -> metrics.record(operation, computerID, start, false));
             } finally {
-                this.attachedComputerLock.unlock();
+                if (!deferred) metrics.record(operation, computerID, start, false);
             }
         }
 
-        @Override
-        public void detach(IComputerAccess computer) {
-            this.attachedComputerLock.lock();
+        /**
+         * Runs the given call and records it in the adapter's metrics.
+         */
+        private <T> T timed(String operation, IComputerAccess computer, LuaCall<T> call) throws LuaException {
+            long start = System.nanoTime();
 
             try {
-                attachedComputers.remove(computer);
+                return call.call();
             } finally {
-                this.attachedComputerLock.unlock();
+                metrics.record(operation, computer.getID(), start, false);
             }
         }
 
-        private void notify(String event, Object... data) {
-            this.attachedComputerLock.lock();
+        private void timed(String operation, IComputerAccess computer, LuaRunnable runnable) throws LuaException {
+            long start = System.nanoTime();
 
             try {
-                for (IComputerAccess attachedComputer : this.attachedComputers) {
-                    attachedComputer.queueEvent(event, data);
-                }
+                runnable.run();
             } finally {
-                this.attachedComputerLock.unlock();
+                metrics.record(operation, computer.getID(), start, false);
             }
         }
 
+        /**
+         * Returns a result that behaves like the given one, but runs the given action once the call has completed, i.e.
+         * once the result no longer yields (or the computer's callback fails).
+         *
+         * <p>If the computer is shut down while waiting for the result, the action is never run.</p>
+         */
+        private static MethodResult whenDone(MethodResult result, Runnable action) {
+            ILuaCallback callback = result.getCallback();
+
+            if (callback == null) {
+                action.run();
+                return result;
+            }
+
+            return MethodResult.yield(result.getResult(), args -> {
+                MethodResult next;
+
+                try {
+                    next = callback.resume(args);
+                } catch (LuaException | RuntimeException e) {
+                    action.run();
+                    throw e;
+                }
+
+                return whenDone(next, action);
+            });
+        }
+
         // Crafting
 
-        @LuaFunction(mainThread = true)
-        public final List<Map<String, Object>> getAvailableObjects() throws LuaException {
-            IGrid grid = blockEntity.getMainNode().getGrid();
-            if (grid == null) throw new LuaException("Cannot connect to AE2 Network");
-
-            MEStorage inventory = grid.getStorageService().getInventory();
-            KeyCounter keyCounter = inventory.getAvailableStacks();
-
-            return StreamSupport.stream(keyCounter.spliterator(), false)
-                .map(it -> {
-                    AEKey key = it.getKey();
-                    long value = it.getLongValue();
-
-                    Map<String, Object> data = new HashMap<>();
-                    data.put("id", key.getId().toString());
-                    data.put("displayName", key.getDisplayName().getString());
-
-                    if (key instanceof AEFluidKey) {
-                        data.put("type", "fluid");
-                        data.put("amount", value / 81);
-                    } else if (key instanceof AEItemKey) {
-                        data.put("type", "item");
-                        data.put("amount", value);
-                    } else {
-                        return null;
-                    }
+        @LuaFunction
+        public final MethodResult getAvailableObjects(IComputerAccess computer, ILuaContext context) throws LuaException {
+            return this.query("getAvailableObjects", computer, context, view -> LuaKeyCache.getAll(view.inventory()));
+        }
 
-                    return Map.copyOf(data);
-                })
-                .filter(Objects::nonNull)
-                .toList();
+        @LuaFunction
+        public final MethodResult getAvailableObjectColumns(IComputerAccess computer, ILuaContext context, Optional<Boolean> includeDisplayNames) throws LuaException {
+            boolean displayNames = includeDisplayNames.orElse(false);
+
+            return this.query("getAvailableObjectColumns", computer, context, view -> ObjectColumns.of(view.inventory(), displayNames));
         }
 
-        @LuaFunction(mainThread = true)
-        public final List<Map<String, Object>> getCraftableObjects() throws LuaException {
-            IGrid grid = blockEntity.getMainNode().getGrid();
-            if (grid == null) throw new LuaException("Cannot connect to AE2 Network");
+        @LuaFunction
+        public final MethodResult getObject(IComputerAccess computer, ILuaContext context, String type, String id) throws LuaException {
+            AEKey key = resolveKey(type, id);
 
-            ICraftingService craftingService = grid.getCraftingService();
-            return craftingService.getCraftables((it) -> it instanceof AEFluidKey || it instanceof AEItemKey)
-                .stream()
-                .map(AE2CCAdapterBlockEntity::deriveLuaRepresentation)
-                .toList();
+            return this.query("getObject", computer, context, view -> LuaKeyCache.get(key, view.inventory().get(key)));
         }
 
         @LuaFunction
-        public final List<Map<String, Object>> getCraftingCPUs() throws LuaException {
-            IGrid grid = blockEntity.getMainNode().getGrid();
-            if (grid == null) throw new LuaException("Cannot connect to AE2 Network");
+        public final MethodResult getObjects(IComputerAccess computer, ILuaContext context, Map<?, ?> objects) throws LuaException {
+            List<AEKey> keys = new ArrayList<>(objects.size());
+            for (Map<?, ?> object : LuaTables.getTables(objects)) {
+                keys.add(resolveKey(object));
+            }
 
-            Set<ICraftingCPU> cpus = grid.getCraftingService().getCpus();
+            return this.query("getObjects", computer, context, view -> {
+                KeyCounter keyCounter = view.inventory();
 
-            return cpus.stream()
-                .map(cpu -> {
-                    String selectionMode = switch (cpu.getSelectionMode()) {
-                        case ANY -> "ANY";
-                        case MACHINE_ONLY -> "MACHINE_ONLY";
-                        case PLAYER_ONLY -> "PLAYER_ONLY";
-                    };
+                List<Map<String, Object>> result = new ArrayList<>(keys.size());
+                for (AEKey key : keys) {
+                    result.add(LuaKeyCache.get(key, keyCounter.get(key)));
+                }
 
-                    HashMap<String, Object> data = new HashMap<>();
-                    data.put("availableCoProcessors", cpu.getCoProcessors());
-                    data.put("availableStorage", cpu.getAvailableStorage());
-                    data.put("selectionMode", selectionMode);
+                return result;
+            });
+        }
 
-                    Component name = cpu.getName();
-                    if (name != null) {
-                        data.put("name", name.getContents());
-                    }
+        @LuaFunction
+        public final MethodResult queryObjects(IComputerAccess computer, ILuaContext context, Optional<Map<?, ?>> filter) throws LuaException {
+            ObjectQuery query = ObjectQuery.parse(filter.orElse(null));
 
-                    CraftingJobStatus jobStatus = cpu.getJobStatus();
-                    if (jobStatus != null) {
-                        Map<String, Object> jobData = new HashMap<>();
-                        jobData.put("totalObjects", jobStatus.totalItems());
-                        jobData.put("craftedObjects", jobStatus.progress());
-                        jobData.put("elapsedNanos", jobStatus.elapsedTimeNanos());
-
-                        if (cpu instanceof CraftingCPUCluster cluster) {
-                            ICraftingLink link = cluster.craftingLogic.getLastLink();
-                            if (link != null) {
-                                jobData.put("systemID", link.getCraftingID());
-                            }
-                        } else {
-                            if (!INTERNAL_ASSUMPTION_FAILED.getAndSet(true)) {
-                                LOGGER.error(
-                                    """
-                                    Incorrect assumption about AE2 internals:
-                                    ICraftingCPU implementation is not a CraftingCPUCluster: {}
-                                    
-                                    If you are using an up-to-date version of AE2CC, please make
-                                    sure that this is reported.
-                                    https://github.com/TheMrMilchmann/AE2CCBridge/issues
-                                    """,
-                                    cpu.getClass().getName()
-                                );
-                            }
-                        }
-
-                        GenericStack stack = jobStatus.crafting();
-                        Map<String, Object> stackData = new HashMap<>();
-                        stackData.put("amount", stack.amount());
-                        stackData.putAll(deriveLuaRepresentation(stack.what()));
-
-                        jobData.put("output", Map.copyOf(stackData));
-                        data.put("jobStatus", Map.copyOf(jobData));
-                    }
+            return this.query("queryObjects", computer, context, view -> query.execute(view.inventory()).stream()
+                .map(it -> LuaKeyCache.get(it.key(), it.rawAmount()))
+                .toList()
+            );
+        }
 
-                    return Map.copyOf(data);
-                })
-                .toList();
+        @LuaFunction
+        public final MethodResult getCraftableObjects(IComputerAccess computer, ILuaContext context) throws LuaException {
+            return this.query("getCraftableObjects", computer, context, view -> view.craftables().stream()
+                .map(LuaKeyCache::get)
+                .toList()
+            );
         }
 
         @LuaFunction
-        public final List<Map<String, Object>> getIssuedCraftingJobs() {
-            pendingJobLock.lock();
+        public final MethodResult getCraftingCPUs(IComputerAccess computer, ILuaContext context) throws LuaException {
+            return this.query("getCraftingCPUs", computer, context, GridView::cpus);
+        }
 
-            try {
-                craftingJobLock.lock();
+        @LuaFunction
+        public final List<Map<String, Object>> getIssuedCraftingJobs(IComputerAccess computer) throws LuaException {
+            return this.timed("getIssuedCraftingJobs", computer, () -> {
+                pendingJobLock.lock();
 
                 try {
                     return Stream.concat(
-                        pendingJobs.stream().map(pendingJob -> Map.<String, Object>of(
+                        Stream.concat(pendingJobs.keySet().stream(), restoredPendingJobs.keySet().stream()).map(jobID -> Map.<String, Object>of(
                             "state", "SCHEDULED",
-                            "jobID", pendingJob.id().toString()
+                            "jobID", jobID.toString()
                         )),
-                        craftingJobs.stream().map(craftingJob -> Map.<String, Object>of(
+                        craftingJobs.jobs().stream().map(craftingJob -> Map.<String, Object>of(
                             "state", "STARTED",
                             "jobID", craftingJob.id().toString(),
                             "systemID", craftingJob.link().getCraftingID()
                         ))
                     ).toList();
                 } finally {
-                    craftingJobLock.unlock();
+                    pendingJobLock.unlock();
                 }
-            } finally {
-                pendingJobLock.unlock();
-            }
+            });
         }
 
         @LuaFunction
-        public final String scheduleCrafting(String type, String id, long amount) throws LuaException {
-            IGrid grid = blockEntity.getMainNode().getGrid();
-            if (grid == null) throw new LuaException("Cannot connect to AE2 Network");
+        public final String previewCrafting(IComputerAccess computer, String type, String id, long amount) throws LuaException {
+            return this.timed("previewCrafting", computer, () -> {
+                AEKey key = resolveKey(type, id);
+                long rawAmount = resolveAmount(key, amount);
+
+                IGrid grid = blockEntity.getMainNode().getGrid();
+                if (grid == null) throw new LuaException("Cannot connect to AE2 Network");
 
-            ResourceLocation resourceLocation = ResourceLocation.tryParse(id);
-            if (resourceLocation == null) throw new LuaException("Invalid ID: '" + id + "'");
+                long version = craftingStateVersion;
+                Future<ICraftingPlan> futureCraftingPlan = beginCraftingCalculation(grid, key, rawAmount);
 
-            AEKey key = switch (type) {
-                case "fluid" -> {
-                    Fluid fluid = BuiltInRegistries.FLUID.getOptional(resourceLocation).orElseThrow(() -> new LuaException("Fluid does not exist: " + resourceLocation));
-                    yield AEFluidKey.of(fluid);
+                UUID previewID = UUID.randomUUID();
+                eventRouter.claim(previewID, computer);
+                CraftingCalculationWatcher.watch(futureCraftingPlan, () -> onPreviewCalculated(previewID, grid, key, rawAmount, version, futureCraftingPlan));
+
+                return previewID.toString();
+            });
+        }
+
+        @LuaFunction
+        public final String scheduleCrafting(IComputerAccess computer, String type, String id, long amount, Optional<String> cpu, Optional<Boolean> coalesce) throws LuaException {
+            return this.timed("scheduleCrafting", computer, () -> {
+                IGrid grid = blockEntity.getMainNode().getGrid();
+                if (grid == null) throw new LuaException("Cannot connect to AE2 Network");
+
+                AEKey key = resolveKey(type, id);
+                long rawAmount = resolveAmount(key, amount);
+
+                CraftingRequest request = new CraftingRequest(key, rawAmount, cpu.orElse(null));
+                return blockEntity.scheduleCrafting(grid, List.of(request), coalesce.orElse(false), computer).get(0).toString();
+            });
+        }
+
+        @LuaFunction
+        public final List<String> scheduleCraftingBatch(IComputerAccess computer, Map<?, ?> requests, Optional<Boolean> coalesce) throws LuaException {
+            return this.timed("scheduleCraftingBatch", computer, () -> {
+                List<CraftingRequest> craftingRequests = new ArrayList<>(requests.size());
+
+                for (Map<?, ?> request : LuaTables.getTables(requests)) {
+                    AEKey key = resolveKey(request);
+
+                    long amount = resolveAmount(key, LuaTables.getLong(request, "amount"));
+                    craftingRequests.add(new CraftingRequest(key, amount, LuaTables.optString(request, "cpu")));
                 }
-                case "item" -> {
-                    Item item = BuiltInRegistries.ITEM.getOptional(resourceLocation).orElseThrow(() -> new LuaException("Item does not exist: " + resourceLocation));
-                    yield AEItemKey.of(item);
+
+                IGrid grid = blockEntity.getMainNode().getGrid();
+                if (grid == null) throw new LuaException("Cannot connect to AE2 Network");
+
+                return blockEntity.scheduleCrafting(grid, craftingRequests, coalesce.orElse(false), computer).stream().map(UUID::toString).toList();
+            });
+        }
+
+        @LuaFunction
+        public final int getCraftingProgressInterval(IComputerAccess computer) throws LuaException {
+            return this.timed("getCraftingProgressInterval", computer, () -> craftingProgressTracker.getInterval());
+        }
+
+        @LuaFunction
+        public final void setCraftingProgressInterval(IComputerAccess computer, int interval) throws LuaException {
+            this.timed("setCraftingProgressInterval", computer, () -> {
+                if (interval < 0) throw new LuaException("Invalid interval: " + interval + " (must not be negative)");
+
+                craftingProgressTracker.setInterval(interval);
+                runOnServerThread(() -> {
+                    setChanged();
+                    wake();
+                });
+            });
+        }
+
+        // Transfers
+
+        @LuaFunction
+        public final String exportObjects(IComputerAccess computer, String side, Map<?, ?> objects) throws LuaException {
+            return this.timed("exportObjects", computer, () -> queueTransfer(computer, side, objects, true));
+        }
+
+        @LuaFunction
+        public final String importObjects(IComputerAccess computer, String side, Map<?, ?> objects) throws LuaException {
+            return this.timed("importObjects", computer, () -> queueTransfer(computer, side, objects, false));
+        }
+
+        @LuaFunction
+        public final int getTransferBudget(IComputerAccess computer) throws LuaException {
+            return this.timed("getTransferBudget", computer, () -> transfers.getBudget());
+        }
+
+        @LuaFunction
+        public final void setTransferBudget(IComputerAccess computer, int budget) throws LuaException {
+            this.timed("setTransferBudget", computer, () -> {
+                if (budget <= 0) throw new LuaException("Invalid budget: " + budget + " (must be positive)");
+
+                transfers.setBudget(budget);
+                runOnServerThread(AE2CCAdapterBlockEntity.this::setChanged);
+            });
+        }
+
+        private String queueTransfer(IComputerAccess computer, String side, Map<?, ?> objects, boolean export) throws LuaException {
+            Direction direction = Direction.byName(side);
+            if (direction == null) throw new LuaException("Invalid side: '" + side + "' (Valid sides are 'down', 'up', 'north', 'south', 'west', and 'east')");
+
+            List<Map<?, ?>> tables = LuaTables.getTables(objects);
+            if (tables.isEmpty()) throw new LuaException("At least one object must be specified");
+            if (tables.size() > ObjectTransfers.MAX_TRANSFER_SIZE) throw new LuaException("Too many objects (at most " + ObjectTransfers.MAX_TRANSFER_SIZE + " objects may be transferred at once)");
+
+            Map<AEKey, Long> amounts = new LinkedHashMap<>();
+
+            for (Map<?, ?> object : tables) {
+                AEKey key = resolveKey(object);
+
+                long amount = LuaTables.getLong(object, "amount");
+                if (amount <= 0) throw new LuaException("Invalid amount: " + amount + " (must be positive)");
+
+                try {
+                    amounts.merge(key, ObjectQuery.fromLuaAmount(key, amount), Math::addExact);
+                } catch (ArithmeticException e) {
+                    throw new LuaException("Invalid amount: " + amount + " (too large)");
                 }
-                default -> throw new LuaException("Invalid type: '" + type + "' (Valid types are 'fluid' and 'item')");
-            };
-
-            ICraftingService craftingService = grid.getCraftingService();
-            IActionSource actionSource = IActionSource.ofMachine(this.blockEntity);
-
-            Future<ICraftingPlan> futureCraftingPlan = craftingService.beginCraftingCalculation(
-                blockEntity.level,
-                () -> actionSource,
-                key,
-                amount,
-                CalculationStrategy.CRAFT_LESS
-            );
+            }
 
-            pendingJobLock.lock();
+            if (blockEntity.getMainNode().getGrid() == null) throw new LuaException("Cannot connect to AE2 Network");
+
+            UUID transferID = UUID.randomUUID();
+            eventRouter.claim(transferID, computer);
 
             try {
-                UUID jobID = UUID.randomUUID();
-                PendingCraftingJob pendingCraftingJob = new PendingCraftingJob(
-                    jobID,
-                    futureCraftingPlan,
-                    null
+                transfers.add(transferID, direction, export, amounts);
+            } catch (IllegalStateException e) {
+                eventRouter.release(transferID);
+                throw new LuaException(e.getMessage());
+            }
+
+            scheduleWork();
+            return transferID.toString();
+        }
+
+        // Stocking
+
+        @LuaFunction
+        public final void setStockingRule(IComputerAccess computer, Map<?, ?> rule) throws LuaException {
+            this.timed("setStockingRule", computer, () -> {
+                AEKey key = resolveKey(rule);
+
+                long target = LuaTables.getLong(rule, "target");
+                if (target <= 0) throw new LuaException("Invalid target: " + target + " (must be positive)");
+
+                Long batchSize = LuaTables.optLong(rule, "batchSize");
+                if (batchSize != null && batchSize <= 0) throw new LuaException("Invalid batch size: " + batchSize + " (must be positive)");
+
+                Long maxConcurrentJobs = LuaTables.optLong(rule, "maxConcurrentJobs");
+                if (maxConcurrentJobs != null && (maxConcurrentJobs <= 0 || maxConcurrentJobs > 64)) {
+                    throw new LuaException("Invalid maximum of concurrent jobs: " + maxConcurrentJobs + " (must be between 1 and 64)");
+                }
+
+                try {
+                    stockingRules.put(
+                        key,
+                        target,
+                        batchSize != null ? batchSize : target,
+                        LuaTables.optString(rule, "cpu"),
+                        maxConcurrentJobs != null ? maxConcurrentJobs.intValue() : 1
+                    );
+                } catch (IllegalArgumentException | IllegalStateException e) {
+                    throw new LuaException(e.getMessage());
+                }
+
+                runOnServerThread(() -> {
+                    setChanged();
+                    wake();
+                });
+            });
+        }
+
+        @LuaFunction
+        public final boolean removeStockingRule(IComputerAccess computer, String type, String id) throws LuaException {
+            return this.timed("removeStockingRule", computer, () -> {
+                AEKey key = resolveKey(type, id);
+                boolean removed = stockingRules.remove(key);
+
+                if (removed) runOnServerThread(AE2CCAdapterBlockEntity.this::setChanged);
+                return removed;
+            });
+        }
+
+        @LuaFunction
+        public final List<Map<String, Object>> getStockingRules(IComputerAccess computer) throws LuaException {
+            return this.timed("getStockingRules", computer, () -> stockingRules.toLua());
+        }
+
+        // Watchlist
+
+        @LuaFunction
+        public final boolean addWatch(IComputerAccess computer, String type, String id) throws LuaException {
+            return this.timed("addWatch", computer, () -> {
+                AEKey key = resolveKey(type, id);
+                boolean added;
+
+                try {
+                    added = watchlist.add(key);
+                } catch (IllegalStateException e) {
+                    throw new LuaException(e.getMessage());
+                }
+
+                if (added) {
+                    runOnServerThread(() -> {
+                        setChanged();
+                        wake();
+                    });
+                }
+
+                return added;
+            });
+        }
+
+        @LuaFunction
+        public final boolean removeWatch(IComputerAccess computer, String type, String id) throws LuaException {
+            return this.timed("removeWatch", computer, () -> {
+                AEKey key = resolveKey(type, id);
+                boolean removed = watchlist.remove(key);
+
+                if (removed) runOnServerThread(AE2CCAdapterBlockEntity.this::setChanged);
+                return removed;
+            });
+        }
+
+        @LuaFunction
+        public final List<Map<String, Object>> getWatchedObjects(IComputerAccess computer) throws LuaException {
+            return this.timed("getWatchedObjects", computer, () -> watchlist.keys().stream().map(LuaKeyCache::get).toList());
+        }
+
+        @LuaFunction
+        public final Map<String, Object> getSeries(IComputerAccess computer, String type, String id) throws LuaException {
+            return this.timed("getSeries", computer, () -> {
+                AEKey key = resolveKey(type, id);
+
+                Watchlist.Series series = watchlist.series(key);
+                if (series == null) throw new LuaException("Object is not watched: " + id);
+
+                List<Long> ticks = new ArrayList<>(series.ticks().length);
+                for (long tick : series.ticks()) ticks.add(tick);
+
+                List<Long> amounts = new ArrayList<>(series.amounts().length);
+                for (long amount : series.amounts()) amounts.add(amount);
+
+                return Map.of(
+                    "interval", Watchlist.SAMPLE_INTERVAL,
+                    "ticks", ticks,
+                    "amounts", amounts
                 );
+            });
+        }
 
-                pendingJobs.add(pendingCraftingJob);
-                return jobID.toString();
-            } finally {
-                pendingJobLock.unlock();
-            }
+        @LuaFunction
+        @Nullable
+        public final Double getRate(IComputerAccess computer, String type, String id, Optional<Integer> window) throws LuaException {
+            return this.timed("getRate", computer, () -> {
+                AEKey key = resolveKey(type, id);
+
+                int seconds = window.orElse(60);
+                if (seconds <= 0) throw new LuaException("Invalid window: " + seconds + " (must be positive)");
+
+                if (!watchlist.contains(key)) throw new LuaException("Object is not watched: " + id);
+                return watchlist.ratePerMinute(key, seconds * 20L);
+            });
+        }
+
+        // Thresholds
+
+        @LuaFunction
+        public final void addThreshold(IComputerAccess computer, String type, String id, Optional<Long> below, Optional<Long> above) throws LuaException {
+            this.timed("addThreshold", computer, () -> {
+                AEKey key = resolveKey(type, id);
+
+                if (below.isEmpty() && above.isEmpty()) throw new LuaException("At least one of 'below' and 'above' must be specified");
+                if (below.isPresent() && above.isPresent() && below.get() > above.get()) {
+                    throw new LuaException("Invalid threshold: 'below' (" + below.get() + ") must not be greater than 'above' (" + above.get() + ")");
+                }
+
+                try {
+                    thresholds.put(key, below.orElse(null), above.orElse(null));
+                } catch (IllegalStateException e) {
+                    throw new LuaException(e.getMessage());
+                }
+
+                runOnServerThread(() -> {
+                    setChanged();
+                    wake();
+                });
+            });
+        }
+
+        @LuaFunction
+        public final boolean removeThreshold(IComputerAccess computer, String type, String id) throws LuaException {
+            return this.timed("removeThreshold", computer, () -> {
+                AEKey key = resolveKey(type, id);
+                boolean removed = thresholds.remove(key);
+
+                if (removed) runOnServerThread(AE2CCAdapterBlockEntity.this::setChanged);
+                return removed;
+            });
+        }
+
+        @LuaFunction
+        public final List<Map<String, Object>> getThresholds(IComputerAccess computer) throws LuaException {
+            return this.timed("getThresholds", computer, () -> thresholds.toLua());
         }
 
         // Energy
 
-        @LuaFunction(mainThread = true)
-        public final double getAveragePowerInjection() throws LuaException {
-            IGrid grid = blockEntity.getMainNode().getGrid();
-            if (grid == null) throw new LuaException("Cannot connect to AE2 Network");
+        @LuaFunction
+        public final MethodResult getEnergyStats(IComputerAccess computer, ILuaContext context) throws LuaException {
+            return this.query("getEnergyStats", computer, context, view -> view.energy().toLua());
+        }
 
-            IEnergyService energyService = grid.getEnergyService();
-            return energyService.getAvgPowerInjection();
+        @LuaFunction
+        public final Map<String, Object> getEnergyHistory(IComputerAccess computer, Optional<Integer> window) throws LuaException {
+            return this.timed("getEnergyHistory", computer, () -> {
+                int samples = window.orElse(EnergyHistory.CAPACITY);
+                if (samples < 0) throw new LuaException("Invalid window: " + samples + " (must not be negative)");
+
+                return energyHistory.toLua(samples);
+            });
         }
 
-        @LuaFunction(mainThread = true)
-        public final double getAveragePowerUsage() throws LuaException {
-            IGrid grid = blockEntity.getMainNode().getGrid();
-            if (grid == null) throw new LuaException("Cannot connect to AE2 Network");
+        @LuaFunction
+        public final MethodResult getAveragePowerInjection(IComputerAccess computer, ILuaContext context) throws LuaException {
+            return this.query("getAveragePowerInjection", computer, context, view -> view.energy().averagePowerInjection());
+        }
 
-            IEnergyService energyService = grid.getEnergyService();
-            return energyService.getAvgPowerUsage();
+        @LuaFunction
+        public final MethodResult getAveragePowerUsage(IComputerAccess computer, ILuaContext context) throws LuaException {
+            return this.query("getAveragePowerUsage", computer, context, view -> view.energy().averagePowerUsage());
         }
 
-        @LuaFunction(mainThread = true)
-        public final double getChannelPowerUsage() throws LuaException {
-            IGrid grid = blockEntity.getMainNode().getGrid();
-            if (grid == null) throw new LuaException("Cannot connect to AE2 Network");
+        @LuaFunction
+        public final MethodResult getChannelPowerUsage(IComputerAccess computer, ILuaContext context) throws LuaException {
+            return this.query("getChannelPowerUsage", computer, context, view -> view.energy().channelPowerUsage());
+        }
 
-            IEnergyService energyService = grid.getEnergyService();
-            return energyService.getChannelPowerUsage();
+        @LuaFunction
+        public final MethodResult getIdlePowerUsage(IComputerAccess computer, ILuaContext context) throws LuaException {
+            return this.query("getIdlePowerUsage", computer, context, view -> view.energy().idlePowerUsage());
+        }
+
+        @LuaFunction
+        public final MethodResult getMaxStoredPower(IComputerAccess computer, ILuaContext context) throws LuaException {
+            return this.query("getMaxStoredPower", computer, context, view -> view.energy().maxStoredPower());
+        }
+
+        @LuaFunction
+        public final MethodResult getStoredPower(IComputerAccess computer, ILuaContext context) throws LuaException {
+            return this.query("getStoredPower", computer, context, view -> view.energy().storedPower());
+        }
+
+        // Diagnostics
+
+        @LuaFunction
+        public final Map<String, Object> getAdapterStats(IComputerAccess computer) throws LuaException {
+            return this.timed("getAdapterStats", computer, () -> {
+                List<ComputerEventQueue> eventQueues = this.eventRouter.eventQueues();
+                List<Map<String, Object>> computers = new ArrayList<>(eventQueues.size());
+
+                for (ComputerEventQueue eventQueue : eventQueues) {
+                    Map<String, Object> data = new HashMap<>(eventQueue.stats());
+                    data.put("id", eventQueue.computer().getID());
+                    data.put("attachmentName", eventQueue.computer().getAttachmentName());
+                    data.put("operations", metrics.toLua(eventQueue.computer().getID()));
+
+                    computers.add(Map.copyOf(data));
+                }
+
+                Map<String, Object> stats = new HashMap<>(metrics.toLua());
+                stats.put("computers", computers);
+
+                return stats;
+            });
         }
 
-        @LuaFunction(mainThread = true)
-        public final double getIdlePowerUsage() throws LuaException{
-            IGrid grid = blockEntity.getMainNode().getGrid();
-            if (grid == null) throw new LuaException("Cannot connect to AE2 Network");
+        // Events
 
-            IEnergyService energyService = grid.getEnergyService();
-            return energyService.getIdlePowerUsage();
+        @LuaFunction
+        public final void subscribe(IComputerAccess computer, Map<?, ?> eventTypes, Optional<Map<?, ?>> filter) throws LuaException {
+            this.timed("subscribe", computer, () -> {
+                Set<String> events = resolveEventTypes(eventTypes);
+                boolean allJobs = eventRouter.isSubscribedToAllJobs(computer);
+
+                if (filter.isPresent()) {
+                    String jobs = LuaTables.optString(filter.get(), "jobs");
+
+                    if (jobs != null) {
+                        allJobs = switch (jobs) {
+                            case "all" -> true;
+                            case "own" -> false;
+                            default -> throw new LuaException("Invalid job filter: " + jobs + " (expected 'own' or 'all')");
+                        };
+                    }
+                }
+
+                eventRouter.subscribe(computer, events, allJobs);
+            });
         }
 
-        @LuaFunction(mainThread = true)
-        public final double getMaxStoredPower() throws LuaException{
-            IGrid grid = blockEntity.getMainNode().getGrid();
-            if (grid == null) throw new LuaException("Cannot connect to AE2 Network");
+        @LuaFunction
+        public final void unsubscribe(IComputerAccess computer, Optional<Map<?, ?>> eventTypes) throws LuaException {
+            this.timed("unsubscribe", computer, () -> {
+                Set<String> events = eventTypes.isPresent() ? resolveEventTypes(eventTypes.get()) : null;
+                eventRouter.unsubscribe(computer, events);
+            });
+        }
 
-            IEnergyService energyService = grid.getEnergyService();
-            return energyService.getMaxStoredPower();
+        @LuaFunction
+        public final Map<String, Object> getSubscriptions(IComputerAccess computer) throws LuaException {
+            return this.timed("getSubscriptions", computer, () -> Map.of(
+                "events", eventRouter.subscriptions(computer).stream().sorted().toList(),
+                "jobs", eventRouter.isSubscribedToAllJobs(computer) ? "all" : "own"
+            ));
         }
 
-        @LuaFunction(mainThread = true)
-        public final double getStoredPower() throws LuaException{
-            IGrid grid = blockEntity.getMainNode().getGrid();
-            if (grid == null) throw new LuaException("Cannot connect to AE2 Network");
+        // Snapshots
+
+        @LuaFunction
+        public final int getSnapshotInterval(IComputerAccess computer) throws LuaException {
+            return this.timed("getSnapshotInterval", computer, () -> snapshotInterval);
+        }
 
-            IEnergyService energyService = grid.getEnergyService();
-            return energyService.getStoredPower();
+        @LuaFunction
+        public final void setSnapshotInterval(IComputerAccess computer, int interval) throws LuaException {
+            this.timed("setSnapshotInterval", computer, () -> {
+                if (interval < 0) throw new LuaException("Invalid interval: " + interval + " (must not be negative)");
+
+                snapshotInterval = interval;
+                runOnServerThread(AE2CCAdapterBlockEntity.this::setChanged);
+            });
         }
 
     }
@@ -21,8 +21,12 @@
  */
 package io.github.themrmilchmann.ae2cc;
 
+import appeng.api.networking.GridServices;
 import dan200.computercraft.api.peripheral.PeripheralLookup;
 import net.fabricmc.api.ModInitializer;
+import net.fabricmc.fabric.api.command.v2.CommandRegistrationCallback;
+import net.fabricmc.fabric.api.event.lifecycle.v1.ServerLifecycleEvents;
+import net.fabricmc.fabric.api.event.lifecycle.v1.ServerTickEvents;
 import net.fabricmc.fabric.api.item.v1.FabricItemSettings;
 import net.fabricmc.fabric.api.object.builder.v1.block.entity.FabricBlockEntityTypeBuilder;
 import net.minecraft.core.Registry;
@@ -46,7 +50,14 @@ public final class AE2CCBridge implements ModInitializer {
         Registry.register(BuiltInRegistries.BLOCK, "ae2cc:adapter", ADAPTER_BLOCK);
         Registry.register(BuiltInRegistries.ITEM, "ae2cc:adapter", new BlockItem(ADAPTER_BLOCK, new FabricItemSettings()));
 
+        GridServices.register(GridQueryService.class, GridQueryService.class);
+
         PeripheralLookup.get().registerForBlockEntity((blockEntity, ignored) -> blockEntity.asPeripheral(), ADAPTER_BLOCK_ENTITY);
+
+        CommandRegistrationCallback.EVENT.register((dispatcher, registryAccess, environment) -> AE2CCCommands.register(dispatcher));
+
+        ServerTickEvents.END_SERVER_TICK.register(server -> MainThreadScheduler.tick());
+        ServerLifecycleEvents.SERVER_STOPPED.register(server -> MainThreadScheduler.clear());
     }
 
 }
\ No newline at end of file
@@ -0,0 +1,126 @@
+/*
+ * Copyright (c) 2022-2024 Leon Linhart
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package io.github.themrmilchmann.ae2cc;
+
+import com.mojang.brigadier.CommandDispatcher;
+import net.minecraft.commands.CommandSourceStack;
+import net.minecraft.commands.Commands;
+import net.minecraft.core.BlockPos;
+import net.minecraft.network.chat.Component;
+import net.minecraft.world.level.Level;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * The server commands of AE2CC Bridge.
+ *
+ * <ul>
+ * <li>{@code /ae2cc stats} - prints (and logs) the adapters that spent the most time on the server thread together with
+ * their most expensive operations and the attached computers that caused the most server thread time.</li>
+ * </ul>
+ */
+final class AE2CCCommands {
+
+    private static final Logger LOGGER = LogManager.getLogger();
+
+    private static final int MAX_ADAPTERS = 10;
+    private static final int MAX_OPERATIONS = 5;
+    private static final int MAX_COMPUTERS = 5;
+
+    private AE2CCCommands() {}
+
+    static void register(CommandDispatcher<CommandSourceStack> dispatcher) {
+        dispatcher.register(Commands.literal("ae2cc")
+            .requires(source -> source.hasPermission(2))
+            .then(Commands.literal("stats").executes(context -> dumpStats(context.getSource())))
+        );
+    }
+
+    private static int dumpStats(CommandSourceStack source) {
+        List<AE2CCAdapterBlockEntity> adapters = new ArrayList<>(AE2CCAdapterBlockEntity.loadedAdapters());
+        adapters.sort(Comparator.comparingLong((AE2CCAdapterBlockEntity adapter) -> adapter.metrics().mainThreadNanos()).reversed());
+
+        List<String> lines = new ArrayList<>();
+        lines.add("AE2CC adapter statistics (" + adapters.size() + " loaded adapters):");
+        lines.add(String.format(
+            "Scheduler: %d adapters with deferred work, budget of %d units or %dµs per tick",
+            MainThreadScheduler.scheduledClients(),
+            MainThreadScheduler.MAX_UNITS_PER_TICK,
+            MainThreadScheduler.MAX_NANOS_PER_TICK / 1_000L
+        ));
+
+        for (AE2CCAdapterBlockEntity adapter : adapters.subList(0, Math.min(adapters.size(), MAX_ADAPTERS))) {
+            AdapterMetrics metrics = adapter.metrics();
+            Level level = Objects.requireNonNull(adapter.getLevel());
+            BlockPos pos = adapter.getBlockPos();
+
+            lines.add(String.format(
+                "%s [%d, %d, %d]: %.2fms on the server thread",
+                level.dimension().location(),
+                pos.getX(),
+                pos.getY(),
+                pos.getZ(),
+                metrics.mainThreadNanos() / 1_000_000.0D
+            ));
+
+            for (Map.Entry<String, OperationMetrics> entry : metrics.topByMainThreadTime(MAX_OPERATIONS)) {
+                OperationMetrics operation = entry.getValue();
+                if (operation.count() == 0) continue;
+
+                lines.add(String.format(
+                    "  %s: %d calls, %.2fms on the server thread (p99 < %dµs), latency p50 < %dµs, p99 < %dµs, max %dµs",
+                    entry.getKey(),
+                    operation.count(),
+                    operation.mainThreadNanos() / 1_000_000.0D,
+                    operation.mainThreadPercentileMicros(0.99),
+                    operation.percentileMicros(0.5),
+                    operation.percentileMicros(0.99),
+                    operation.maxNanos() / 1_000L
+                ));
+            }
+
+            adapter.attachedComputerIDs().stream()
+                .sorted(Comparator.comparingLong((Integer computerID) -> metrics.mainThreadNanos(computerID)).reversed())
+                .limit(MAX_COMPUTERS)
+                .forEach(computerID -> lines.add(String.format(
+                    "  computer #%d: %d calls, %.2fms on the server thread",
+                    computerID,
+                    metrics.callCount(computerID),
+                    metrics.mainThreadNanos(computerID) / 1_000_000.0D
+                )));
+        }
+
+        for (String line : lines) {
+            LOGGER.info(line);
+            source.sendSuccess(() -> Component.literal(line), false);
+        }
+
+        return adapters.size();
+    }
+
+}
@@ -0,0 +1,169 @@
+/*
+ * Copyright (c) 2022-2024 Leon Linhart
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package io.github.themrmilchmann.ae2cc;
+
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The {@link OperationMetrics metrics} of the operations of an adapter, keyed by operation name.
+ *
+ * <p>Operations are the functions of the peripheral and the adapter's hooks that run on the server thread (e.g.
+ * {@code tickingRequest}). Calls of the peripheral's functions are additionally recorded per calling computer until the
+ * computer detaches. This class is thread-safe.</p>
+ */
+final class AdapterMetrics {
+
+    private final Map<String, OperationMetrics> operations = new ConcurrentHashMap<>();
+    private final Map<Integer, Map<String, OperationMetrics>> computers = new ConcurrentHashMap<>();
+    private final long createdAt = System.nanoTime();
+
+    OperationMetrics get(String operation) {
+        OperationMetrics metrics = this.operations.get(operation);
+        return (metrics != null) ? metrics : this.operations.computeIfAbsent(operation, ignored -> new OperationMetrics());
+    }
+
+    /**
+     * Records a call of the given operation that started at {@code startNanos} (as returned by {@link System#nanoTime()})
+     * and has just finished.
+     */
+    void record(String operation, long startNanos, boolean onMainThread) {
+        this.get(operation).record(System.nanoTime() - startNanos, onMainThread);
+    }
+
+    /**
+     * Records a call of the given operation by the computer with the given ID that started at {@code startNanos} (as
+     * returned by {@link System#nanoTime()}) and has just finished.
+     */
+    void record(String operation, int computerID, long startNanos, boolean onMainThread) {
+        long nanos = System.nanoTime() - startNanos;
+
+        this.get(operation).record(nanos, onMainThread);
+        this.get(operation, computerID).record(nanos, onMainThread);
+    }
+
+    /**
+     * Records time spent on the server thread on behalf of a call of the given operation by the computer with the given
+     * ID.
+     */
+    void recordMainThread(String operation, int computerID, long nanos) {
+        this.get(operation).recordMainThread(nanos);
+        this.get(operation, computerID).recordMainThread(nanos);
+    }
+
+    /**
+     * Discards the metrics of the computer with the given ID.
+     */
+    void forget(int computerID) {
+        this.computers.remove(computerID);
+    }
+
+    private OperationMetrics get(String operation, int computerID) {
+        return this.computers.computeIfAbsent(computerID, ignored -> new ConcurrentHashMap<>())
+            .computeIfAbsent(operation, ignored -> new OperationMetrics());
+    }
+
+    /**
+     * Returns the total time (in nanoseconds) that all operations spent on the server thread.
+     */
+    long mainThreadNanos() {
+        long total = 0;
+
+        for (OperationMetrics metrics : this.operations.values()) {
+            total += metrics.mainThreadNanos();
+        }
+
+        return total;
+    }
+
+    /**
+     * Returns the {@code limit} operations that spent the most time on the server thread.
+     */
+    List<Map.Entry<String, OperationMetrics>> topByMainThreadTime(int limit) {
+        return this.operations.entrySet().stream()
+            .sorted(Comparator.comparingLong((Map.Entry<String, OperationMetrics> entry) -> entry.getValue().mainThreadNanos()).reversed())
+            .limit(limit)
+            .toList();
+    }
+
+    /**
+     * Returns the total number of calls of the peripheral's functions by the computer with the given ID.
+     */
+    long callCount(int computerID) {
+        Map<String, OperationMetrics> operations = this.computers.get(computerID);
+        if (operations == null) return 0;
+
+        long total = 0;
+
+        for (OperationMetrics metrics : operations.values()) {
+            total += metrics.count();
+        }
+
+        return total;
+    }
+
+    /**
+     * Returns the total time (in nanoseconds) that calls by the computer with the given ID spent on the server thread.
+     */
+    long mainThreadNanos(int computerID) {
+        Map<String, OperationMetrics> operations = this.computers.get(computerID);
+        if (operations == null) return 0;
+
+        long total = 0;
+
+        for (OperationMetrics metrics : operations.values()) {
+            total += metrics.mainThreadNanos();
+        }
+
+        return total;
+    }
+
+    /**
+     * Returns the Lua representation of the metrics of the calls by the computer with the given ID, keyed by operation
+     * name.
+     */
+    Map<String, Object> toLua(int computerID) {
+        return toLua(this.computers.getOrDefault(computerID, Map.of()));
+    }
+
+    Map<String, Object> toLua() {
+        return Map.of(
+            "uptime", (System.nanoTime() - this.createdAt) / 1_000_000L,
+            "mainThreadTime", this.mainThreadNanos(),
+            "operations", toLua(this.operations)
+        );
+    }
+
+    private static Map<String, Object> toLua(Map<String, OperationMetrics> metrics) {
+        Map<String, Object> operations = new HashMap<>();
+
+        for (Map.Entry<String, OperationMetrics> entry : metrics.entrySet()) {
+            operations.put(entry.getKey(), entry.getValue().toLua());
+        }
+
+        return operations;
+    }
+
+}
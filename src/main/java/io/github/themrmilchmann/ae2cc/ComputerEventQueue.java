@@ -0,0 +1,162 @@
+/*
+ * Copyright (c) 2022-2024 Leon Linhart
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package io.github.themrmilchmann.ae2cc;
+
+import dan200.computercraft.api.peripheral.IComputerAccess;
+import dan200.computercraft.api.peripheral.NotAttachedException;
+
+import javax.annotation.Nullable;
+import java.util.*;
+
+/**
+ * An outbound buffer for the events of a single computer.
+ *
+ * <p>ComputerCraft's event queue is bounded and silently drops events once it is full. To avoid flooding computers
+ * during bursts, events are buffered here and delivered in chunks of at most {@link #MAX_EVENTS_PER_DELIVERY} events.
+ * Events with the same coalescing key replace each other while they are buffered. If the buffer itself overflows,
+ * new events are dropped and an {@code ae2cc:events_dropped} event carrying the number of dropped events is delivered
+ * before any other buffered event.</p>
+ */
+final class ComputerEventQueue {
+
+    static final int CAPACITY = 128;
+    static final int MAX_EVENTS_PER_DELIVERY = 16;
+
+    private final IComputerAccess computer;
+
+    private final ArrayDeque<Event> events = new ArrayDeque<>();
+    private final Map<String, Event> eventsByCoalescingKey = new HashMap<>();
+
+    private long droppedEvents;
+
+    // Statistics
+    private long totalDeliveredEvents;
+    private long totalDroppedEvents;
+
+    ComputerEventQueue(IComputerAccess computer) {
+        this.computer = computer;
+    }
+
+    IComputerAccess computer() {
+        return this.computer;
+    }
+
+    /**
+     * Buffers an event for delivery.
+     *
+     * @param coalescingKey if not {@code null}, an already buffered event with the same key is replaced by this event
+     */
+    synchronized void enqueue(@Nullable String coalescingKey, String name, Object[] data) {
+        if (coalescingKey != null) {
+            Event existing = this.eventsByCoalescingKey.get(coalescingKey);
+
+            if (existing != null) {
+                existing.name = name;
+                existing.data = data;
+                return;
+            }
+        }
+
+        if (this.events.size() >= CAPACITY) {
+            this.droppedEvents++;
+            this.totalDroppedEvents++;
+            return;
+        }
+
+        Event event = new Event(coalescingKey, name, data);
+        this.events.add(event);
+
+        if (coalescingKey != null) this.eventsByCoalescingKey.put(coalescingKey, event);
+    }
+
+    synchronized boolean isEmpty() {
+        return this.events.isEmpty() && this.droppedEvents == 0;
+    }
+
+    /**
+     * Returns the event statistics of the computer.
+     */
+    synchronized Map<String, Object> stats() {
+        return Map.of(
+            "bufferedEvents", this.events.size(),
+            "deliveredEvents", this.totalDeliveredEvents,
+            "droppedEvents", this.totalDroppedEvents
+        );
+    }
+
+    /**
+     * Delivers up to {@link #MAX_EVENTS_PER_DELIVERY} buffered events to the computer.
+     *
+     * @return  whether there are buffered events left
+     */
+    boolean deliver() {
+        List<Event> batch;
+        boolean hasRemaining;
+
+        synchronized (this) {
+            batch = new ArrayList<>(Math.min(this.events.size() + 1, MAX_EVENTS_PER_DELIVERY));
+
+            if (this.droppedEvents > 0) {
+                batch.add(new Event(null, "ae2cc:events_dropped", new Object[] { this.droppedEvents }));
+                this.droppedEvents = 0;
+            }
+
+            while (batch.size() < MAX_EVENTS_PER_DELIVERY && !this.events.isEmpty()) {
+                Event event = this.events.poll();
+                if (event.coalescingKey != null) this.eventsByCoalescingKey.remove(event.coalescingKey);
+
+                batch.add(event);
+            }
+
+            hasRemaining = !this.events.isEmpty();
+            this.totalDeliveredEvents += batch.size();
+        }
+
+        try {
+            for (Event event : batch) {
+                this.computer.queueEvent(event.name, event.data);
+            }
+        } catch (NotAttachedException e) {
+            // The computer has been detached in the meantime. Nothing left to do here.
+            return false;
+        }
+
+        return hasRemaining;
+    }
+
+    private static final class Event {
+
+        @Nullable
+        private final String coalescingKey;
+
+        private String name;
+        private Object[] data;
+
+        private Event(@Nullable String coalescingKey, String name, Object[] data) {
+            this.coalescingKey = coalescingKey;
+            this.name = name;
+            this.data = data;
+        }
+
+    }
+
+}
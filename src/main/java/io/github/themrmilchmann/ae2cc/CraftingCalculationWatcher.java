@@ -0,0 +1,104 @@
+/*
+ * Copyright (c) 2022-2024 Leon Linhart
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package io.github.themrmilchmann.ae2cc;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.*;
+
+/**
+ * Turns the plain {@link Future futures} returned by AE2's crafting calculations into completion callbacks.
+ *
+ * <p>AE2 does not offer a way to be notified when a crafting calculation has finished. Instead of having every adapter
+ * check all of its outstanding calculations on the server thread, a single shared daemon thread polls the outstanding
+ * futures and invokes the registered callbacks once they complete. {@link CompletableFuture CompletableFutures} are
+ * not polled but completed through {@link CompletableFuture#whenComplete(java.util.function.BiConsumer)}.</p>
+ */
+final class CraftingCalculationWatcher {
+
+    private static final Logger LOGGER = LogManager.getLogger();
+
+    private static final long POLL_INTERVAL_MILLIS = 50L;
+
+    private static final Queue<Watch> INCOMING_WATCHES = new ConcurrentLinkedQueue<>();
+
+    // Only accessed from the watcher thread.
+    private static final List<Watch> WATCHES = new ArrayList<>();
+
+    private static final ScheduledExecutorService EXECUTOR = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "AE2CC Crafting Calculation Watcher");
+        thread.setDaemon(true);
+
+        return thread;
+    });
+
+    static {
+        EXECUTOR.scheduleWithFixedDelay(CraftingCalculationWatcher::poll, POLL_INTERVAL_MILLIS, POLL_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    private CraftingCalculationWatcher() {}
+
+    /**
+     * Registers a callback that is invoked once the given future is done (either normally, exceptionally, or because
+     * it was cancelled).
+     *
+     * <p>The callback may be invoked on an arbitrary thread and must be thread-safe.</p>
+     */
+    static void watch(Future<?> future, Runnable callback) {
+        if (future instanceof CompletableFuture<?> completableFuture) {
+            completableFuture.whenComplete((result, throwable) -> callback.run());
+            return;
+        }
+
+        INCOMING_WATCHES.add(new Watch(future, callback));
+    }
+
+    private static void poll() {
+        Watch incoming;
+        while ((incoming = INCOMING_WATCHES.poll()) != null) {
+            WATCHES.add(incoming);
+        }
+
+        Iterator<Watch> itr = WATCHES.iterator();
+
+        while (itr.hasNext()) {
+            Watch watch = itr.next();
+            if (!watch.future().isDone()) continue;
+
+            itr.remove();
+
+            try {
+                watch.callback().run();
+            } catch (Throwable t) {
+                LOGGER.error("Failed to process completed crafting calculation", t);
+            }
+        }
+    }
+
+    private record Watch(Future<?> future, Runnable callback) {}
+
+}
@@ -0,0 +1,79 @@
+/*
+ * Copyright (c) 2022-2024 Leon Linhart
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package io.github.themrmilchmann.ae2cc;
+
+import appeng.api.networking.crafting.ICraftingCPU;
+import appeng.api.networking.crafting.ICraftingService;
+import net.minecraft.network.chat.Component;
+
+import javax.annotation.Nullable;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * An index of the named crafting CPUs of a grid.
+ *
+ * <p>The index is rebuilt only if the set of CPUs reported by the crafting service has changed. CPU names are tied to
+ * the CPU clusters, thus renaming a CPU always results in a new CPU instance and invalidates the index. This class is
+ * not thread-safe and must only be used from the server thread.</p>
+ */
+final class CraftingCpuIndex {
+
+    private Set<ICraftingCPU> cpus = Set.of();
+    private Map<String, ICraftingCPU> cpusByName = Map.of();
+
+    private long lastRefreshTick = Long.MIN_VALUE;
+
+    /**
+     * Returns the CPU with the given name, or {@code null} if there is no such CPU.
+     *
+     * @param gameTime  the current game time, used to check the CPU set for changes at most once per tick
+     */
+    @Nullable
+    ICraftingCPU get(ICraftingService craftingService, String name, long gameTime) {
+        if (this.lastRefreshTick != gameTime) {
+            this.refresh(craftingService);
+            this.lastRefreshTick = gameTime;
+        }
+
+        return this.cpusByName.get(name);
+    }
+
+    private void refresh(ICraftingService craftingService) {
+        Set<ICraftingCPU> cpus = craftingService.getCpus();
+        if (cpus.equals(this.cpus)) return;
+
+        Map<String, ICraftingCPU> cpusByName = new HashMap<>();
+
+        for (ICraftingCPU cpu : cpus) {
+            Component name = cpu.getName();
+            if (name == null) continue;
+
+            cpusByName.putIfAbsent(name.getString(), cpu);
+        }
+
+        this.cpus = cpus;
+        this.cpusByName = cpusByName;
+    }
+
+}
@@ -0,0 +1,116 @@
+/*
+ * Copyright (c) 2022-2024 Leon Linhart
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package io.github.themrmilchmann.ae2cc;
+
+import appeng.api.networking.crafting.CraftingJobStatus;
+import appeng.api.networking.crafting.ICraftingCPU;
+import appeng.api.networking.crafting.ICraftingLink;
+import appeng.api.networking.crafting.ICraftingService;
+import appeng.api.stacks.GenericStack;
+import appeng.me.cluster.implementations.CraftingCPUCluster;
+import net.minecraft.network.chat.Component;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Converts the crafting CPUs of a grid to Lua.
+ */
+final class CraftingCpus {
+
+    private static final AtomicBoolean INTERNAL_ASSUMPTION_FAILED = new AtomicBoolean(false);
+
+    private static final Logger LOGGER = LogManager.getLogger();
+
+    private CraftingCpus() {}
+
+    /**
+     * Returns an immutable copy of the state of the given service's crafting CPUs. Must be called from the server
+     * thread.
+     */
+    static List<Map<String, Object>> toLua(ICraftingService craftingService) {
+        return craftingService.getCpus().stream()
+            .map(CraftingCpus::toLua)
+            .toList();
+    }
+
+    private static Map<String, Object> toLua(ICraftingCPU cpu) {
+        String selectionMode = switch (cpu.getSelectionMode()) {
+            case ANY -> "ANY";
+            case MACHINE_ONLY -> "MACHINE_ONLY";
+            case PLAYER_ONLY -> "PLAYER_ONLY";
+        };
+
+        HashMap<String, Object> data = new HashMap<>();
+        data.put("availableCoProcessors", cpu.getCoProcessors());
+        data.put("availableStorage", cpu.getAvailableStorage());
+        data.put("selectionMode", selectionMode);
+
+        Component name = cpu.getName();
+        if (name != null) {
+            data.put("name", name.getContents());
+        }
+
+        CraftingJobStatus jobStatus = cpu.getJobStatus();
+        if (jobStatus != null) {
+            Map<String, Object> jobData = new HashMap<>();
+            jobData.put("totalObjects", jobStatus.totalItems());
+            jobData.put("craftedObjects", jobStatus.progress());
+            jobData.put("elapsedNanos", jobStatus.elapsedTimeNanos());
+
+            if (cpu instanceof CraftingCPUCluster cluster) {
+                ICraftingLink link = cluster.craftingLogic.getLastLink();
+                if (link != null) {
+                    jobData.put("systemID", link.getCraftingID());
+                }
+            } else {
+                if (!INTERNAL_ASSUMPTION_FAILED.getAndSet(true)) {
+                    LOGGER.error(
+                        """
+                        Incorrect assumption about AE2 internals:
+                        ICraftingCPU implementation is not a CraftingCPUCluster: {}
+                        
+                        If you are using an up-to-date version of AE2CC, please make
+                        sure that this is reported.
+                        https://github.com/TheMrMilchmann/AE2CCBridge/issues
+                        """,
+                        cpu.getClass().getName()
+                    );
+                }
+            }
+
+            GenericStack stack = jobStatus.crafting();
+            Map<String, Object> stackData = new HashMap<>(LuaKeyCache.get(stack.what()));
+            stackData.put("amount", stack.amount());
+
+            jobData.put("output", Map.copyOf(stackData));
+            data.put("jobStatus", Map.copyOf(jobData));
+        }
+
+        return Map.copyOf(data);
+    }
+
+}
\ No newline at end of file
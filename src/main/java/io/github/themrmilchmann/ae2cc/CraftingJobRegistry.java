@@ -0,0 +1,167 @@
+/*
+ * Copyright (c) 2022-2024 Leon Linhart
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package io.github.themrmilchmann.ae2cc;
+
+import appeng.api.networking.crafting.ICraftingLink;
+import com.google.common.collect.ImmutableSet;
+
+import javax.annotation.Nullable;
+import java.util.*;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A thread-safe registry of the {@link CraftingJob crafting jobs} of an adapter.
+ *
+ * <p>Jobs are indexed by the identity of their {@link ICraftingLink link} and by their ID. Immutable snapshots of the
+ * registry are cached and only rebuilt after the registry has been modified.</p>
+ */
+final class CraftingJobRegistry {
+
+    private final ReentrantLock lock = new ReentrantLock();
+
+    private final Map<ICraftingLink, CraftingJob> jobsByLink = new IdentityHashMap<>();
+    private final Map<UUID, CraftingJob> jobsByID = new LinkedHashMap<>();
+
+    @Nullable
+    private volatile ImmutableSet<ICraftingLink> linkSnapshot = ImmutableSet.of();
+
+    @Nullable
+    private volatile List<CraftingJob> jobSnapshot = List.of();
+
+    void add(CraftingJob job) {
+        this.lock.lock();
+
+        try {
+            this.jobsByLink.put(job.link(), job);
+            this.jobsByID.put(job.id(), job);
+            this.invalidateSnapshots();
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * Removes the job with the given link from the registry and returns it.
+     *
+     * @return  the removed job, or {@code null} if no job with the given link is registered
+     */
+    @Nullable
+    CraftingJob remove(ICraftingLink link) {
+        this.lock.lock();
+
+        try {
+            CraftingJob job = this.jobsByLink.remove(link);
+            if (job == null) return null;
+
+            this.jobsByID.remove(job.id());
+            this.invalidateSnapshots();
+
+            return job;
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * Replaces all jobs in the registry with the given jobs.
+     */
+    void replaceAll(Collection<CraftingJob> jobs) {
+        this.lock.lock();
+
+        try {
+            this.jobsByLink.clear();
+            this.jobsByID.clear();
+
+            for (CraftingJob job : jobs) {
+                this.jobsByLink.put(job.link(), job);
+                this.jobsByID.put(job.id(), job);
+            }
+
+            this.invalidateSnapshots();
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    @Nullable
+    CraftingJob get(UUID id) {
+        this.lock.lock();
+
+        try {
+            return this.jobsByID.get(id);
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * Returns an immutable snapshot of the links of all registered jobs.
+     */
+    ImmutableSet<ICraftingLink> links() {
+        ImmutableSet<ICraftingLink> snapshot = this.linkSnapshot;
+        if (snapshot != null) return snapshot;
+
+        this.lock.lock();
+
+        try {
+            snapshot = this.linkSnapshot;
+
+            if (snapshot == null) {
+                snapshot = ImmutableSet.copyOf(this.jobsByLink.keySet());
+                this.linkSnapshot = snapshot;
+            }
+
+            return snapshot;
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * Returns an immutable snapshot of all registered jobs in the order in which they were added.
+     */
+    List<CraftingJob> jobs() {
+        List<CraftingJob> snapshot = this.jobSnapshot;
+        if (snapshot != null) return snapshot;
+
+        this.lock.lock();
+
+        try {
+            snapshot = this.jobSnapshot;
+
+            if (snapshot == null) {
+                snapshot = List.copyOf(this.jobsByID.values());
+                this.jobSnapshot = snapshot;
+            }
+
+            return snapshot;
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    private void invalidateSnapshots() {
+        this.linkSnapshot = null;
+        this.jobSnapshot = null;
+    }
+
+}
@@ -0,0 +1,178 @@
+/*
+ * Copyright (c) 2022-2024 Leon Linhart
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package io.github.themrmilchmann.ae2cc;
+
+import appeng.api.networking.crafting.*;
+import appeng.api.networking.security.IActionSource;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import javax.annotation.Nullable;
+import java.util.Objects;
+import java.util.Queue;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+/**
+ * Submits the calculated crafting plans of an adapter's jobs to the crafting service.
+ *
+ * <p>Jobs whose calculation has completed are queued and started one at a time by the adapter's scheduled work (see
+ * {@link MainThreadScheduler}). Started jobs are added to the adapter's {@link CraftingJobRegistry}. Jobs that cannot
+ * be started are reported to the {@link Listener} together with the reason as exposed to Lua.</p>
+ *
+ * <p>Completed jobs may be queued from any thread. Otherwise, this class is not thread-safe and must only be used from
+ * the server thread.</p>
+ */
+final class CraftingJobStarter {
+
+    private static final Logger LOGGER = LogManager.getLogger();
+
+    private final CraftingCpuIndex craftingCpuIndex = new CraftingCpuIndex();
+
+    /*
+     * Pending jobs whose crafting calculation has finished. Filled by the CraftingCalculationWatcher and drained by the
+     * MainThreadScheduler.
+     */
+    private final Queue<PendingCraftingJob> completedJobs = new ConcurrentLinkedQueue<>();
+
+    private final ICraftingRequester requester;
+    private final CraftingJobRegistry craftingJobs;
+    private final Listener listener;
+
+    CraftingJobStarter(ICraftingRequester requester, CraftingJobRegistry craftingJobs, Listener listener) {
+        this.requester = requester;
+        this.craftingJobs = craftingJobs;
+        this.listener = listener;
+    }
+
+    /**
+     * Queues the given job whose crafting calculation has completed. This method may be called from any thread.
+     */
+    void complete(PendingCraftingJob job) {
+        this.completedJobs.add(job);
+    }
+
+    boolean hasCompletedJobs() {
+        return !this.completedJobs.isEmpty();
+    }
+
+    /**
+     * Starts the next completed job, if any.
+     *
+     * @param gameTime  the current game time
+     *
+     * @return  whether a completed job has been taken from the queue
+     */
+    boolean startNext(ICraftingService craftingService, IActionSource actionSource, long gameTime) {
+        PendingCraftingJob job = this.completedJobs.poll();
+        if (job == null) return false;
+
+        if (!this.listener.onCompleted(job)) return true;
+
+        try {
+            this.start(craftingService, actionSource, job.id(), job.futureCraftingPlan(), job.request().cpu(), gameTime);
+        } catch (RuntimeException e) {
+            // The job is no longer pending, so its owner must be notified either way.
+            LOGGER.error("Failed to start crafting job", e);
+            this.listener.onCancelled(job.id(), "FAILED");
+        }
+
+        return true;
+    }
+
+    private void start(ICraftingService craftingService, IActionSource actionSource, UUID id, Future<ICraftingPlan> futureCraftingPlan, @Nullable String cpu, long gameTime) {
+        if (futureCraftingPlan.isCancelled()) {
+            this.listener.onCancelled(id, "CANCELLED");
+            return;
+        }
+
+        ICraftingPlan craftingPlan;
+
+        try {
+            craftingPlan = futureCraftingPlan.get();
+        } catch (InterruptedException | ExecutionException e) {
+            LOGGER.warn("Crafting calculation for job failed", e);
+            this.listener.onCancelled(id, "FAILED");
+            return;
+        }
+
+        ICraftingCPU craftingCPU = null;
+
+        if (cpu != null) {
+            craftingCPU = this.craftingCpuIndex.get(craftingService, cpu, gameTime);
+
+            if (craftingCPU == null) {
+                this.listener.onCancelled(id, "CPU_NOT_FOUND");
+                return;
+            }
+        }
+
+        ICraftingSubmitResult craftingSubmitResult = craftingService.submitJob(craftingPlan, this.requester, craftingCPU, false, actionSource);
+        if (!craftingSubmitResult.successful()) {
+            String reason = switch (Objects.requireNonNull(craftingSubmitResult.errorCode())) {
+                case INCOMPLETE_PLAN -> "INCOMPLETE_PLAN";
+                case NO_CPU_FOUND -> "NO_CPU_FOUND";
+                case NO_SUITABLE_CPU_FOUND -> "NO_SUITABLE_CPU_FOUND";
+                case CPU_BUSY -> "CPU_BUSY";
+                case CPU_OFFLINE -> "CPU_OFFLINE";
+                case CPU_TOO_SMALL -> "CPU_TOO_SMALL";
+                case MISSING_INGREDIENT -> "MISSING_INGREDIENT";
+            };
+
+            this.listener.onCancelled(id, reason);
+            return;
+        }
+
+        ICraftingLink craftingLink = craftingSubmitResult.link();
+        assert craftingLink != null;
+
+        CraftingJob craftingJob = new CraftingJob(id, craftingLink);
+
+        this.craftingJobs.add(craftingJob);
+        this.listener.onStarted(craftingJob);
+    }
+
+    interface Listener {
+
+        /**
+         * Called when the given job is about to be started.
+         *
+         * @return  whether the job is still pending and should be started, {@code false} if it has been discarded in
+         *          the meantime (e.g. because the adapter was reloaded)
+         */
+        boolean onCompleted(PendingCraftingJob job);
+
+        /**
+         * Called after the given job has been submitted and added to the registry.
+         */
+        void onStarted(CraftingJob job);
+
+        /**
+         * Called if the job with the given ID could not be started.
+         */
+        void onCancelled(UUID jobID, String reason);
+
+    }
+
+}
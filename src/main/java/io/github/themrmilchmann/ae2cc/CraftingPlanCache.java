@@ -0,0 +1,85 @@
+/*
+ * Copyright (c) 2022-2024 Leon Linhart
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package io.github.themrmilchmann.ae2cc;
+
+import appeng.api.networking.IGrid;
+import appeng.api.networking.crafting.ICraftingPlan;
+import appeng.api.stacks.AEKey;
+
+import javax.annotation.Nullable;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A short-lived cache of completed crafting plans.
+ *
+ * <p>Plans are keyed by the requested key, the requested amount, and the version of the grid's crafting state at the
+ * time the calculation was started. A cached plan is only handed out once and expires after {@link #TTL_NANOS}. The
+ * crafting service validates plans again when they are submitted, so a stale plan never results in an invalid job.
+ * This class is thread-safe.</p>
+ */
+final class CraftingPlanCache {
+
+    static final long TTL_NANOS = TimeUnit.SECONDS.toNanos(10);
+    static final int MAX_SIZE = 32;
+
+    private final Map<Key, Entry> entries = new LinkedHashMap<>();
+
+    synchronized void put(IGrid grid, AEKey what, long amount, long version, ICraftingPlan plan) {
+        this.expire();
+
+        this.entries.put(new Key(what, amount, version), new Entry(grid, plan, System.nanoTime()));
+
+        Iterator<Entry> itr = this.entries.values().iterator();
+        while (this.entries.size() > MAX_SIZE && itr.hasNext()) {
+            itr.next();
+            itr.remove();
+        }
+    }
+
+    /**
+     * Removes and returns a cached plan for the given request, or returns {@code null} if there is no such plan.
+     */
+    @Nullable
+    synchronized ICraftingPlan take(IGrid grid, AEKey what, long amount, long version) {
+        this.expire();
+
+        Key key = new Key(what, amount, version);
+
+        Entry entry = this.entries.get(key);
+        if (entry == null || entry.grid() != grid) return null;
+
+        this.entries.remove(key);
+        return entry.plan();
+    }
+
+    private void expire() {
+        long now = System.nanoTime();
+        this.entries.values().removeIf(entry -> now - entry.createdAt() > TTL_NANOS);
+    }
+
+    private record Key(AEKey what, long amount, long version) {}
+    private record Entry(IGrid grid, ICraftingPlan plan, long createdAt) {}
+
+}
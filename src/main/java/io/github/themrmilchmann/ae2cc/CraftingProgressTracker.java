@@ -0,0 +1,107 @@
+/*
+ * Copyright (c) 2022-2024 Leon Linhart
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package io.github.themrmilchmann.ae2cc;
+
+import appeng.api.networking.crafting.CraftingJobStatus;
+import appeng.api.networking.crafting.ICraftingCPU;
+import appeng.api.networking.crafting.ICraftingLink;
+import appeng.api.networking.crafting.ICraftingService;
+import appeng.me.cluster.implementations.CraftingCPUCluster;
+
+import java.util.*;
+
+/**
+ * Samples the progress of an adapter's crafting jobs and reports changes.
+ *
+ * <p>The tracker only reports jobs whose progress has changed since the last sample. This class is not thread-safe
+ * and must only be used from the server thread (except for the volatile interval).</p>
+ */
+final class CraftingProgressTracker {
+
+    static final int DEFAULT_INTERVAL = 20;
+
+    private volatile int interval = DEFAULT_INTERVAL;
+
+    private final Map<UUID, Long> lastProgress = new HashMap<>();
+    private long lastSampleTick = Long.MIN_VALUE;
+
+    int getInterval() {
+        return this.interval;
+    }
+
+    void setInterval(int interval) {
+        this.interval = interval;
+    }
+
+    boolean isEnabled() {
+        return this.interval > 0;
+    }
+
+    /**
+     * Samples the progress of the given jobs if the interval has elapsed since the last sample.
+     */
+    void sample(ICraftingService craftingService, List<CraftingJob> jobs, long gameTime, Listener listener) {
+        int interval = this.interval;
+        if (interval <= 0 || jobs.isEmpty()) return;
+        if (this.lastSampleTick != Long.MIN_VALUE && gameTime - this.lastSampleTick < interval) return;
+
+        this.lastSampleTick = gameTime;
+
+        Map<UUID, CraftingJob> jobsBySystemID = new HashMap<>();
+        for (CraftingJob job : jobs) {
+            jobsBySystemID.put(job.link().getCraftingID(), job);
+        }
+
+        for (ICraftingCPU cpu : craftingService.getCpus()) {
+            if (!(cpu instanceof CraftingCPUCluster cluster)) continue;
+
+            ICraftingLink link = cluster.craftingLogic.getLastLink();
+            if (link == null) continue;
+
+            CraftingJob job = jobsBySystemID.get(link.getCraftingID());
+            if (job == null) continue;
+
+            CraftingJobStatus jobStatus = cpu.getJobStatus();
+            if (jobStatus == null) continue;
+
+            Long previousProgress = this.lastProgress.put(job.id(), jobStatus.progress());
+            if (previousProgress != null && previousProgress == jobStatus.progress()) continue;
+
+            listener.onProgress(job, jobStatus);
+        }
+    }
+
+    /**
+     * Discards the state of the job with the given ID.
+     */
+    void remove(UUID id) {
+        this.lastProgress.remove(id);
+    }
+
+    @FunctionalInterface
+    interface Listener {
+
+        void onProgress(CraftingJob job, CraftingJobStatus jobStatus);
+
+    }
+
+}
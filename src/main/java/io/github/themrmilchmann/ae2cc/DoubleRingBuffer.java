@@ -0,0 +1,68 @@
+/*
+ * Copyright (c) 2022-2024 Leon Linhart
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package io.github.themrmilchmann.ae2cc;
+
+/**
+ * A fixed-size ring buffer of primitive {@code double} values. Once the buffer is full, adding a value overwrites the
+ * oldest value.
+ *
+ * <p>This class is not thread-safe.</p>
+ */
+final class DoubleRingBuffer {
+
+    private final double[] values;
+
+    private int head;
+    private int size;
+
+    DoubleRingBuffer(int capacity) {
+        if (capacity <= 0) throw new IllegalArgumentException("capacity must be positive");
+        this.values = new double[capacity];
+    }
+
+    void add(double value) {
+        this.values[this.head] = value;
+        this.head = (this.head + 1) % this.values.length;
+
+        if (this.size < this.values.length) this.size++;
+    }
+
+    int size() {
+        return this.size;
+    }
+
+    /**
+     * Returns the {@code count} most recent values, ordered from oldest to newest.
+     */
+    double[] latest(int count) {
+        int n = Math.min(Math.max(count, 0), this.size);
+        double[] result = new double[n];
+
+        int start = Math.floorMod(this.head - n, this.values.length);
+        for (int i = 0; i < n; i++) {
+            result[i] = this.values[(start + i) % this.values.length];
+        }
+
+        return result;
+    }
+
+}
@@ -0,0 +1,91 @@
+/*
+ * Copyright (c) 2022-2024 Leon Linhart
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package io.github.themrmilchmann.ae2cc;
+
+import appeng.api.networking.energy.IEnergyService;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Samples the energy statistics of a grid into fixed-size ring buffers.
+ *
+ * <p>Sampling happens on the server thread while the history may be queried from any thread.</p>
+ *
+ * <p>The game time of each sample is recorded alongside the statistics since sampling pauses while the adapter is not
+ * ticking (e.g. while no computer is attached). Thus, the actual delta between samples may be larger than
+ * {@link #SAMPLE_INTERVAL}.</p>
+ */
+final class EnergyHistory {
+
+    static final int SAMPLE_INTERVAL = 20;
+    static final int CAPACITY = 720;
+
+    private final LongRingBuffer sampleTicks = new LongRingBuffer(CAPACITY);
+    private final DoubleRingBuffer storedPower = new DoubleRingBuffer(CAPACITY);
+    private final DoubleRingBuffer averagePowerUsage = new DoubleRingBuffer(CAPACITY);
+    private final DoubleRingBuffer averagePowerInjection = new DoubleRingBuffer(CAPACITY);
+
+    private long lastSampleTick = Long.MIN_VALUE;
+
+    /**
+     * Samples the given energy service if the sample interval has elapsed since the last sample.
+     */
+    synchronized void sample(IEnergyService energyService, long gameTime) {
+        if (this.lastSampleTick != Long.MIN_VALUE && gameTime - this.lastSampleTick < SAMPLE_INTERVAL) return;
+        this.lastSampleTick = gameTime;
+
+        this.sampleTicks.add(gameTime);
+        this.storedPower.add(energyService.getStoredPower());
+        this.averagePowerUsage.add(energyService.getAvgPowerUsage());
+        this.averagePowerInjection.add(energyService.getAvgPowerInjection());
+    }
+
+    /**
+     * Returns the Lua representation of the {@code window} most recent samples.
+     */
+    synchronized Map<String, Object> toLua(int window) {
+        return Map.of(
+            "interval", SAMPLE_INTERVAL,
+            "ticks", toList(this.sampleTicks.latest(window)),
+            "storedPower", toList(this.storedPower.latest(window)),
+            "averagePowerUsage", toList(this.averagePowerUsage.latest(window)),
+            "averagePowerInjection", toList(this.averagePowerInjection.latest(window))
+        );
+    }
+
+    private static List<Long> toList(long[] values) {
+        List<Long> list = new ArrayList<>(values.length);
+        for (long value : values) list.add(value);
+
+        return list;
+    }
+
+    private static List<Double> toList(double[] values) {
+        List<Double> list = new ArrayList<>(values.length);
+        for (double value : values) list.add(value);
+
+        return list;
+    }
+
+}
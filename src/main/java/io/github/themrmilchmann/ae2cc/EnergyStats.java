@@ -0,0 +1,62 @@
+/*
+ * Copyright (c) 2022-2024 Leon Linhart
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package io.github.themrmilchmann.ae2cc;
+
+import appeng.api.networking.energy.IEnergyService;
+
+import java.util.Map;
+
+/**
+ * An immutable copy of the energy statistics of a grid.
+ */
+record EnergyStats(
+    double averagePowerInjection,
+    double averagePowerUsage,
+    double channelPowerUsage,
+    double idlePowerUsage,
+    double maxStoredPower,
+    double storedPower
+) {
+
+    static EnergyStats of(IEnergyService energyService) {
+        return new EnergyStats(
+            energyService.getAvgPowerInjection(),
+            energyService.getAvgPowerUsage(),
+            energyService.getChannelPowerUsage(),
+            energyService.getIdlePowerUsage(),
+            energyService.getMaxStoredPower(),
+            energyService.getStoredPower()
+        );
+    }
+
+    Map<String, Object> toLua() {
+        return Map.of(
+            "averagePowerInjection", this.averagePowerInjection,
+            "averagePowerUsage", this.averagePowerUsage,
+            "channelPowerUsage", this.channelPowerUsage,
+            "idlePowerUsage", this.idlePowerUsage,
+            "maxStoredPower", this.maxStoredPower,
+            "storedPower", this.storedPower
+        );
+    }
+
+}
@@ -0,0 +1,296 @@
+/*
+ * Copyright (c) 2022-2024 Leon Linhart
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package io.github.themrmilchmann.ae2cc;
+
+import dan200.computercraft.api.peripheral.IComputerAccess;
+
+import javax.annotation.Nullable;
+import java.util.*;
+
+/**
+ * Routes the events of an adapter to the attached computers.
+ *
+ * <p>By default, a computer is subscribed to all event types. Job-scoped events (i.e. events concerning a crafting job,
+ * a crafting preview, or a transfer) are only routed to the computers that own the job, unless a computer subscribed
+ * to the events of all jobs. Events of jobs without an attached owner (e.g. jobs scheduled by stocking rules) are
+ * routed to all subscribers.</p>
+ *
+ * <p>The routes are precomputed whenever the attached computers or their subscriptions change, so that routing an
+ * event does not require evaluating the subscriptions of all computers. This class is thread-safe.</p>
+ */
+final class EventRouter {
+
+    static final Set<String> EVENT_TYPES = Set.of(
+        "ae2cc:crafting_cancelled",
+        "ae2cc:crafting_done",
+        "ae2cc:crafting_preview",
+        "ae2cc:crafting_progress",
+        "ae2cc:crafting_started",
+        "ae2cc:inventory_changed",
+        "ae2cc:threshold_crossed",
+        "ae2cc:transfer_done"
+    );
+
+    private static final Subscription DEFAULT_SUBSCRIPTION = new Subscription(null, false);
+
+    private final Map<ComputerEventQueue, Subscription> computers = new LinkedHashMap<>();
+    private final Map<UUID, List<ComputerEventQueue>> jobOwners = new HashMap<>();
+
+    private volatile Map<String, Route> routes = Map.of();
+    private volatile List<ComputerEventQueue> eventQueues = List.of();
+
+    /**
+     * Returns the event queues of all attached computers.
+     */
+    List<ComputerEventQueue> eventQueues() {
+        return this.eventQueues;
+    }
+
+    boolean isEmpty() {
+        return this.eventQueues.isEmpty();
+    }
+
+    /**
+     * Returns whether any computer is subscribed to the given event type.
+     */
+    boolean hasSubscribers(String event) {
+        Route route = this.routes.get(event);
+        return route != null && !route.subscribers().isEmpty();
+    }
+
+    synchronized void attach(IComputerAccess computer) {
+        this.computers.put(new ComputerEventQueue(computer), DEFAULT_SUBSCRIPTION);
+        this.rebuildRoutes();
+    }
+
+    synchronized void detach(IComputerAccess computer) {
+        ComputerEventQueue eventQueue = this.find(computer);
+        if (eventQueue == null) return;
+
+        this.computers.remove(eventQueue);
+        this.jobOwners.values().removeIf(owners -> owners.remove(eventQueue) && owners.isEmpty());
+        this.rebuildRoutes();
+    }
+
+    /**
+     * Subscribes the given computer to the given event types.
+     *
+     * <p>A computer that has not explicitly subscribed to any event type yet is implicitly subscribed to all event
+     * types. Its first explicit subscription replaces the implicit subscription.</p>
+     *
+     * @param allJobs   whether the computer should receive the job-scoped events of all jobs (instead of the jobs it
+     *                  owns)
+     */
+    synchronized void subscribe(IComputerAccess computer, Set<String> eventTypes, boolean allJobs) {
+        ComputerEventQueue eventQueue = this.find(computer);
+        if (eventQueue == null) return;
+
+        Subscription subscription = this.computers.get(eventQueue);
+
+        Set<String> subscribedEventTypes;
+
+        if (subscription.eventTypes() == null && eventTypes.isEmpty()) {
+            // Only the job filter is changed.
+            subscribedEventTypes = null;
+        } else {
+            subscribedEventTypes = new HashSet<>(eventTypes);
+            if (subscription.eventTypes() != null) subscribedEventTypes.addAll(subscription.eventTypes());
+
+            subscribedEventTypes = Set.copyOf(subscribedEventTypes);
+        }
+
+        this.computers.put(eventQueue, new Subscription(subscribedEventTypes, allJobs));
+        this.rebuildRoutes();
+    }
+
+    /**
+     * Unsubscribes the given computer from the given event types, or from all event types if {@code eventTypes} is
+     * {@code null}.
+     */
+    synchronized void unsubscribe(IComputerAccess computer, @Nullable Set<String> eventTypes) {
+        ComputerEventQueue eventQueue = this.find(computer);
+        if (eventQueue == null) return;
+
+        Subscription subscription = this.computers.get(eventQueue);
+
+        Set<String> subscribedEventTypes = new HashSet<>(subscription.eventTypes() != null ? subscription.eventTypes() : EVENT_TYPES);
+        if (eventTypes != null) {
+            subscribedEventTypes.removeAll(eventTypes);
+        } else {
+            subscribedEventTypes.clear();
+        }
+
+        this.computers.put(eventQueue, new Subscription(Set.copyOf(subscribedEventTypes), subscription.allJobs()));
+        this.rebuildRoutes();
+    }
+
+    /**
+     * Returns the event types the given computer is subscribed to.
+     */
+    synchronized Set<String> subscriptions(IComputerAccess computer) {
+        ComputerEventQueue eventQueue = this.find(computer);
+        if (eventQueue == null) return Set.of();
+
+        Set<String> eventTypes = this.computers.get(eventQueue).eventTypes();
+        return eventTypes != null ? eventTypes : EVENT_TYPES;
+    }
+
+    /**
+     * Returns whether the given computer receives the job-scoped events of all jobs (instead of the jobs it owns).
+     */
+    synchronized boolean isSubscribedToAllJobs(IComputerAccess computer) {
+        ComputerEventQueue eventQueue = this.find(computer);
+        return eventQueue != null && this.computers.get(eventQueue).allJobs();
+    }
+
+    /**
+     * Records the given computer as an owner of the job with the given ID.
+     */
+    synchronized void claim(UUID jobID, IComputerAccess computer) {
+        ComputerEventQueue eventQueue = this.find(computer);
+        if (eventQueue == null) return;
+
+        List<ComputerEventQueue> owners = this.jobOwners.computeIfAbsent(jobID, ignored -> new ArrayList<>(1));
+        if (!owners.contains(eventQueue)) owners.add(eventQueue);
+    }
+
+    /**
+     * Records the given computer as an additional owner of the job with the given ID if the job already has an owner.
+     *
+     * <p>Events of jobs without owners are routed to all subscribers. Claiming such a job would silently cut off all
+     * other computers from its events.</p>
+     */
+    synchronized void claimIfOwned(UUID jobID, IComputerAccess computer) {
+        if (this.jobOwners.containsKey(jobID)) this.claim(jobID, computer);
+    }
+
+    /**
+     * Forgets the owners of the job with the given ID.
+     */
+    synchronized void release(UUID jobID) {
+        this.jobOwners.remove(jobID);
+    }
+
+    /**
+     * Buffers an event for delivery to the computers that should receive it.
+     *
+     * @param coalescingKey if not {@code null}, a not yet delivered event with the same key is replaced by this event
+     * @param jobID         the ID of the job the event concerns, or {@code null} if the event is not job-scoped
+     *
+     * @return  whether the event has been buffered for any computer
+     */
+    boolean dispatch(@Nullable String coalescingKey, @Nullable UUID jobID, String event, Object[] data) {
+        List<ComputerEventQueue> recipients = this.route(event, jobID);
+        if (recipients.isEmpty()) return false;
+
+        for (ComputerEventQueue recipient : recipients) {
+            recipient.enqueue(coalescingKey, event, data);
+        }
+
+        return true;
+    }
+
+    /**
+     * Delivers buffered events to the attached computers.
+     *
+     * @return  whether there are buffered events left
+     */
+    boolean deliver() {
+        boolean hasRemaining = false;
+
+        for (ComputerEventQueue eventQueue : this.eventQueues) {
+            hasRemaining |= eventQueue.deliver();
+        }
+
+        return hasRemaining;
+    }
+
+    /**
+     * Returns the event queues of the computers that should receive the given event.
+     *
+     * @param jobID the ID of the job the event concerns, or {@code null} if the event is not job-scoped
+     */
+    List<ComputerEventQueue> route(String event, @Nullable UUID jobID) {
+        Route route = this.routes.get(event);
+        if (route == null) return List.of();
+        if (jobID == null) return route.subscribers();
+
+        List<ComputerEventQueue> owners;
+
+        synchronized (this) {
+            owners = this.jobOwners.get(jobID);
+            if (owners == null) return route.subscribers();
+
+            owners = List.copyOf(owners);
+        }
+
+        List<ComputerEventQueue> recipients = new ArrayList<>(route.allJobsSubscribers());
+
+        for (ComputerEventQueue owner : owners) {
+            if (route.ownJobsSubscribers().contains(owner)) recipients.add(owner);
+        }
+
+        return recipients;
+    }
+
+    @Nullable
+    private ComputerEventQueue find(IComputerAccess computer) {
+        for (ComputerEventQueue eventQueue : this.computers.keySet()) {
+            if (eventQueue.computer().equals(computer)) return eventQueue;
+        }
+
+        return null;
+    }
+
+    private void rebuildRoutes() {
+        Map<String, Route> routes = new HashMap<>();
+
+        for (String event : EVENT_TYPES) {
+            List<ComputerEventQueue> subscribers = new ArrayList<>();
+            List<ComputerEventQueue> allJobsSubscribers = new ArrayList<>();
+            List<ComputerEventQueue> ownJobsSubscribers = new ArrayList<>();
+
+            for (Map.Entry<ComputerEventQueue, Subscription> entry : this.computers.entrySet()) {
+                Subscription subscription = entry.getValue();
+                if (subscription.eventTypes() != null && !subscription.eventTypes().contains(event)) continue;
+
+                subscribers.add(entry.getKey());
+                (subscription.allJobs() ? allJobsSubscribers : ownJobsSubscribers).add(entry.getKey());
+            }
+
+            routes.put(event, new Route(List.copyOf(subscribers), List.copyOf(allJobsSubscribers), List.copyOf(ownJobsSubscribers)));
+        }
+
+        this.routes = Map.copyOf(routes);
+        this.eventQueues = List.copyOf(this.computers.keySet());
+    }
+
+    /**
+     * @param eventTypes    the subscribed event types, or {@code null} if the computer is implicitly subscribed to all
+     *                      event types
+     * @param allJobs       whether the computer receives the job-scoped events of all jobs
+     */
+    private record Subscription(@Nullable Set<String> eventTypes, boolean allJobs) {}
+
+    private record Route(List<ComputerEventQueue> subscribers, List<ComputerEventQueue> allJobsSubscribers, List<ComputerEventQueue> ownJobsSubscribers) {}
+
+}
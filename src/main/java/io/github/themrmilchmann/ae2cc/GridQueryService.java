@@ -0,0 +1,94 @@
+/*
+ * Copyright (c) 2022-2024 Leon Linhart
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package io.github.themrmilchmann.ae2cc;
+
+import appeng.api.networking.IGrid;
+import appeng.api.networking.IGridService;
+import appeng.api.networking.IGridServiceProvider;
+
+import javax.annotation.Nullable;
+
+/**
+ * A grid service that publishes {@link GridSnapshot snapshots} of its grid that are shared by all adapters on the
+ * grid.
+ *
+ * <p>Snapshots are published at the end of the server tick in the shortest interval requested by any adapter on the
+ * grid (see {@link AE2CCAdapterBlockEntity#getRequestedSnapshotInterval()}). Thus, the inventory, the craftable objects
+ * and the state of the crafting CPUs are copied at most once per interval, regardless of the number of adapters.</p>
+ *
+ * <p>The service is registered with AE2 during mod initialization and is instantiated by AE2 for every grid.</p>
+ */
+public final class GridQueryService implements IGridService, IGridServiceProvider {
+
+    private final IGrid grid;
+    private final GridSnapshotPublisher publisher = new GridSnapshotPublisher();
+
+    private long ticks;
+
+    public GridQueryService(IGrid grid) {
+        this.grid = grid;
+    }
+
+    /**
+     * Returns the most recently published snapshot of the grid, or {@code null} if no adapter requested snapshots when
+     * the service last ticked.
+     */
+    @Nullable
+    GridSnapshot latest() {
+        return this.publisher.latest();
+    }
+
+    /**
+     * Records that the inventory of the grid has changed since the last snapshot.
+     */
+    void onInventoryChange() {
+        this.publisher.onInventoryChange();
+    }
+
+    /**
+     * Records that the craftable objects of the grid have changed since the last snapshot.
+     */
+    void onCraftablesChange() {
+        this.publisher.onCraftablesChange();
+    }
+
+    @Override
+    public void onServerEndTick() {
+        this.ticks++;
+
+        int interval = 0;
+
+        for (AE2CCAdapterBlockEntity adapter : this.grid.getActiveMachines(AE2CCAdapterBlockEntity.class)) {
+            int requestedInterval = adapter.getRequestedSnapshotInterval();
+            if (requestedInterval > 0 && (interval == 0 || requestedInterval < interval)) interval = requestedInterval;
+        }
+
+        if (interval == 0) {
+            // Release the memory held by the snapshot as soon as it is no longer needed.
+            if (this.publisher.latest() != null) this.publisher.invalidate();
+            return;
+        }
+
+        this.publisher.publish(this.grid, this.ticks, interval);
+    }
+
+}
@@ -0,0 +1,112 @@
+/*
+ * Copyright (c) 2022-2024 Leon Linhart
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package io.github.themrmilchmann.ae2cc;
+
+import appeng.api.networking.IGrid;
+import appeng.api.stacks.AEKey;
+import appeng.api.stacks.KeyCounter;
+
+import javax.annotation.Nullable;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * An immutable snapshot of the state of a grid.
+ *
+ * <p>Snapshots are captured on the server thread and may be read from any thread afterward.</p>
+ */
+final class GridSnapshot implements GridView {
+
+    private final long version;
+    private final long capturedAt;
+    private final KeyCounter inventory;
+    private final Set<AEKey> craftables;
+    private final List<Map<String, Object>> cpus;
+    private final EnergyStats energy;
+
+    private GridSnapshot(long version, KeyCounter inventory, Set<AEKey> craftables, List<Map<String, Object>> cpus, EnergyStats energy) {
+        this.version = version;
+        this.capturedAt = System.nanoTime();
+        this.inventory = inventory;
+        this.craftables = craftables;
+        this.cpus = cpus;
+        this.energy = energy;
+    }
+
+    /**
+     * Captures a snapshot of the given grid.
+     *
+     * <p>The inventory and the craftables of the {@code previous} snapshot are reused unless they have changed since
+     * it was captured. Copying the inventory of a large grid is by far the most expensive part of capturing a
+     * snapshot.</p>
+     */
+    static GridSnapshot capture(IGrid grid, long version, @Nullable GridSnapshot previous, boolean inventoryChanged, boolean craftablesChanged) {
+        GridView live = GridView.live(grid);
+
+        KeyCounter inventory;
+
+        if (previous == null || inventoryChanged) {
+            inventory = new KeyCounter();
+            inventory.addAll(live.inventory());
+        } else {
+            inventory = previous.inventory;
+        }
+
+        Set<AEKey> craftables = (previous == null || craftablesChanged) ? Set.copyOf(live.craftables()) : previous.craftables;
+
+        return new GridSnapshot(version, inventory, craftables, live.cpus(), live.energy());
+    }
+
+    long version() {
+        return this.version;
+    }
+
+    /**
+     * Returns the age of this snapshot in milliseconds.
+     */
+    long age() {
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - this.capturedAt);
+    }
+
+    @Override
+    public KeyCounter inventory() {
+        return this.inventory;
+    }
+
+    @Override
+    public Set<AEKey> craftables() {
+        return this.craftables;
+    }
+
+    @Override
+    public List<Map<String, Object>> cpus() {
+        return this.cpus;
+    }
+
+    @Override
+    public EnergyStats energy() {
+        return this.energy;
+    }
+
+}
@@ -0,0 +1,92 @@
+/*
+ * Copyright (c) 2022-2024 Leon Linhart
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package io.github.themrmilchmann.ae2cc;
+
+import appeng.api.networking.IGrid;
+
+import javax.annotation.Nullable;
+
+/**
+ * Periodically publishes {@link GridSnapshot snapshots} of a grid.
+ *
+ * <p>Snapshots are published from the server thread while the latest snapshot may be read from any thread.</p>
+ */
+final class GridSnapshotPublisher {
+
+    @Nullable
+    private volatile GridSnapshot latest;
+
+    private long version;
+    private long lastPublishTick = Long.MIN_VALUE;
+    private volatile boolean inventoryChanged = true;
+    private volatile boolean craftablesChanged = true;
+
+    /**
+     * Returns the most recently published snapshot, or {@code null} if no snapshot has been published since the
+     * publisher was last invalidated.
+     */
+    @Nullable
+    GridSnapshot latest() {
+        return this.latest;
+    }
+
+    /**
+     * Records that the inventory of the grid has changed since the last snapshot.
+     */
+    void onInventoryChange() {
+        this.inventoryChanged = true;
+    }
+
+    /**
+     * Records that the craftable objects of the grid have changed since the last snapshot.
+     */
+    void onCraftablesChange() {
+        this.craftablesChanged = true;
+    }
+
+    /**
+     * Discards the latest snapshot, e.g. because no snapshots are requested anymore.
+     */
+    synchronized void invalidate() {
+        this.latest = null;
+        this.lastPublishTick = Long.MIN_VALUE;
+        this.inventoryChanged = true;
+        this.craftablesChanged = true;
+    }
+
+    /**
+     * Publishes a new snapshot of the given grid if the given interval (in ticks) has elapsed since the last snapshot.
+     */
+    synchronized void publish(IGrid grid, long tick, int interval) {
+        if (this.lastPublishTick != Long.MIN_VALUE && tick - this.lastPublishTick < interval) return;
+
+        boolean inventoryChanged = this.inventoryChanged;
+        boolean craftablesChanged = this.craftablesChanged;
+        this.inventoryChanged = false;
+        this.craftablesChanged = false;
+
+        // Versions are never reused, not even after the snapshot was invalidated.
+        this.latest = GridSnapshot.capture(grid, ++this.version, this.latest, inventoryChanged, craftablesChanged);
+        this.lastPublishTick = tick;
+    }
+
+}
\ No newline at end of file
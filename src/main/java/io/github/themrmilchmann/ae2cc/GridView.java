@@ -0,0 +1,90 @@
+/*
+ * Copyright (c) 2022-2024 Leon Linhart
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package io.github.themrmilchmann.ae2cc;
+
+import appeng.api.networking.IGrid;
+import appeng.api.stacks.AEFluidKey;
+import appeng.api.stacks.AEItemKey;
+import appeng.api.stacks.AEKey;
+import appeng.api.stacks.KeyCounter;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A read-only view of the state of a grid that is exposed to Lua.
+ *
+ * @see GridSnapshot
+ */
+interface GridView {
+
+    /**
+     * Returns a view that reads directly from the given grid. The returned view must only be used on the server
+     * thread.
+     */
+    static GridView live(IGrid grid) {
+        return new GridView() {
+
+            @Override
+            public KeyCounter inventory() {
+                return grid.getStorageService().getCachedInventory();
+            }
+
+            @Override
+            public Set<AEKey> craftables() {
+                return grid.getCraftingService().getCraftables(it -> it instanceof AEFluidKey || it instanceof AEItemKey);
+            }
+
+            @Override
+            public List<Map<String, Object>> cpus() {
+                return CraftingCpus.toLua(grid.getCraftingService());
+            }
+
+            @Override
+            public EnergyStats energy() {
+                return EnergyStats.of(grid.getEnergyService());
+            }
+
+        };
+    }
+
+    /**
+     * Returns the objects that are available in the grid.
+     *
+     * <p>The returned counter must not be modified.</p>
+     */
+    KeyCounter inventory();
+
+    /**
+     * Returns the item and fluid keys that can be crafted by the grid.
+     */
+    Set<AEKey> craftables();
+
+    /**
+     * Returns the state of the crafting CPUs of the grid in their Lua representation.
+     */
+    List<Map<String, Object>> cpus();
+
+    EnergyStats energy();
+
+}
@@ -0,0 +1,154 @@
+/*
+ * Copyright (c) 2022-2024 Leon Linhart
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package io.github.themrmilchmann.ae2cc;
+
+import appeng.api.stacks.AEFluidKey;
+import appeng.api.stacks.AEItemKey;
+import appeng.api.stacks.AEKey;
+import appeng.api.stacks.KeyCounter;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import it.unimi.dsi.fastutil.objects.Object2LongMap;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A cache of the Lua representations of {@link AEKey keys}.
+ *
+ * <p>Building the representation of a key requires resolving its ID and display name. The latter goes through
+ * component resolution which is comparatively expensive when done for every key of a large ME system. The cache is
+ * shared by all adapters and may be read from any thread without locking.</p>
+ *
+ * <p>Entries are keyed by equality, so that keys which are resolved from Lua (and thus are new instances for every
+ * call) hit the same entries as the keys of the ME systems. The cache is bounded to {@link #MAX_SIZE} entries, which
+ * is large enough that listing the whole inventory of a large ME system does not evict the entries of the keys that
+ * are looked up individually.</p>
+ */
+final class LuaKeyCache {
+
+    static final int MAX_SIZE = 1 << 16;
+
+    private static final Cache<AEKey, Entry> CACHE = CacheBuilder.newBuilder()
+        .maximumSize(MAX_SIZE)
+        .build();
+
+    private LuaKeyCache() {}
+
+    /**
+     * Returns the immutable Lua representation ({@code type}, {@code id} and {@code displayName}) of the given key.
+     *
+     * @throws IllegalArgumentException if the key is neither an item nor a fluid
+     */
+    static Map<String, Object> get(AEKey key) {
+        return entry(key).representation();
+    }
+
+    /**
+     * Returns the immutable Lua representation of the given key including the given (raw) amount.
+     *
+     * @throws IllegalArgumentException if the key is neither an item nor a fluid
+     */
+    static Map<String, Object> get(AEKey key, long amount) {
+        Entry entry = entry(key);
+
+        return Map.of(
+            "type", entry.type(),
+            "id", entry.id(),
+            "displayName", entry.displayName(),
+            "amount", ObjectQuery.toLuaAmount(key, amount)
+        );
+    }
+
+    /**
+     * Returns the Lua representations of all item and fluid keys in the given counter including their amounts.
+     */
+    static List<Map<String, Object>> getAll(KeyCounter keyCounter) {
+        List<Map<String, Object>> result = new ArrayList<>(keyCounter.size());
+
+        for (Object2LongMap.Entry<AEKey> entry : keyCounter) {
+            AEKey key = entry.getKey();
+            if (!(key instanceof AEFluidKey || key instanceof AEItemKey)) continue;
+
+            result.add(get(key, entry.getLongValue()));
+        }
+
+        return result;
+    }
+
+    /**
+     * Returns the ID of the given key.
+     *
+     * @throws IllegalArgumentException if the key is neither an item nor a fluid
+     */
+    static String id(AEKey key) {
+        return entry(key).id();
+    }
+
+    /**
+     * Returns the display name of the given key.
+     *
+     * @throws IllegalArgumentException if the key is neither an item nor a fluid
+     */
+    static String displayName(AEKey key) {
+        return entry(key).displayName();
+    }
+
+    private static Entry entry(AEKey key) {
+        Entry entry = CACHE.getIfPresent(key);
+        if (entry != null) return entry;
+
+        /*
+         * Racing threads may derive the same representation twice, but the result is identical either way. Deriving
+         * it without holding any lock keeps display name resolution from blocking other readers.
+         */
+        entry = derive(key);
+
+        Entry existing = CACHE.asMap().putIfAbsent(key, entry);
+        return existing != null ? existing : entry;
+    }
+
+    private static Entry derive(AEKey key) {
+        String type;
+
+        if (key instanceof AEFluidKey) {
+            type = "fluid";
+        } else if (key instanceof AEItemKey) {
+            type = "item";
+        } else {
+            throw new IllegalArgumentException();
+        }
+
+        String id = key.getId().toString();
+        String displayName = key.getDisplayName().getString();
+
+        return new Entry(type, id, displayName, Map.of(
+            "type", type,
+            "id", id,
+            "displayName", displayName
+        ));
+    }
+
+    private record Entry(String type, String id, String displayName, Map<String, Object> representation) {}
+
+}
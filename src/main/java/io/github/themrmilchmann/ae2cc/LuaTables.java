@@ -0,0 +1,143 @@
+/*
+ * Copyright (c) 2022-2024 Leon Linhart
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package io.github.themrmilchmann.ae2cc;
+
+import dan200.computercraft.api.lua.LuaException;
+
+import javax.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Helpers for reading fields from tables passed in from Lua.
+ */
+final class LuaTables {
+
+    private LuaTables() {}
+
+    @Nullable
+    static String optString(Map<?, ?> table, String key) throws LuaException {
+        Object value = table.get(key);
+        if (value == null) return null;
+        if (value instanceof String s) return s;
+
+        throw badField(key, "string", value);
+    }
+
+    static String getString(Map<?, ?> table, String key) throws LuaException {
+        String value = optString(table, key);
+        if (value == null) throw badField(key, "string", null);
+
+        return value;
+    }
+
+    @Nullable
+    static Long optLong(Map<?, ?> table, String key) throws LuaException {
+        Object value = table.get(key);
+        if (value == null) return null;
+        if (value instanceof Number n) {
+            double d = n.doubleValue();
+            if (!Double.isFinite(d)) throw new LuaException("bad field '" + key + "' (number is not finite)");
+
+            // Fractional numbers are rejected instead of truncated, just like ComputerCraft does for arguments.
+            long l = (long) d;
+            if (l != d || l == Long.MAX_VALUE) throw new LuaException("bad field '" + key + "' (number has no integer representation)");
+
+            return l;
+        }
+
+        throw badField(key, "number", value);
+    }
+
+    static long getLong(Map<?, ?> table, String key) throws LuaException {
+        Long value = optLong(table, key);
+        if (value == null) throw badField(key, "number", null);
+
+        return value;
+    }
+
+    @Nullable
+    static Boolean optBoolean(Map<?, ?> table, String key) throws LuaException {
+        Object value = table.get(key);
+        if (value == null) return null;
+        if (value instanceof Boolean b) return b;
+
+        throw badField(key, "boolean", value);
+    }
+
+    @Nullable
+    static Map<?, ?> optTable(Map<?, ?> table, String key) throws LuaException {
+        Object value = table.get(key);
+        if (value == null) return null;
+        if (value instanceof Map<?, ?> m) return m;
+
+        throw badField(key, "table", value);
+    }
+
+    /**
+     * Returns the tables in the array part of the given table.
+     */
+    static List<Map<?, ?>> getTables(Map<?, ?> array) throws LuaException {
+        List<Map<?, ?>> tables = new ArrayList<>(array.size());
+
+        for (int i = 1; i <= array.size(); i++) {
+            Object value = array.get((double) i);
+            if (!(value instanceof Map<?, ?> table)) throw new LuaException("bad item #" + i + " (table expected, got " + typeName(value) + ")");
+
+            tables.add(table);
+        }
+
+        return tables;
+    }
+
+    /**
+     * Returns the strings in the array part of the given table.
+     */
+    static List<String> getStrings(Map<?, ?> array) throws LuaException {
+        List<String> strings = new ArrayList<>(array.size());
+
+        for (int i = 1; i <= array.size(); i++) {
+            Object value = array.get((double) i);
+            if (!(value instanceof String string)) throw new LuaException("bad item #" + i + " (string expected, got " + typeName(value) + ")");
+
+            strings.add(string);
+        }
+
+        return strings;
+    }
+
+    static LuaException badField(String key, String expected, @Nullable Object actual) {
+        return new LuaException("bad field '" + key + "' (" + expected + " expected, got " + typeName(actual) + ")");
+    }
+
+    static String typeName(@Nullable Object value) {
+        if (value == null) return "nil";
+        if (value instanceof String) return "string";
+        if (value instanceof Boolean) return "boolean";
+        if (value instanceof Number) return "number";
+        if (value instanceof Map<?, ?>) return "table";
+
+        return "userdata";
+    }
+
+}
@@ -0,0 +1,141 @@
+/*
+ * Copyright (c) 2022-2024 Leon Linhart
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package io.github.themrmilchmann.ae2cc;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.util.*;
+
+/**
+ * Limits the work that adapters perform on the server thread per tick.
+ *
+ * <p>Work that may pile up (i.e. starting crafting jobs whose plans have been calculated, processing transfers, and
+ * sampling) is not performed directly from an adapter's grid tick. Instead, clients with such work are scheduled here
+ * and are run round-robin at the end of the server tick, one unit of work at a time, until either the maximum number
+ * of units or the time budget of the tick is exhausted. Leftover work is carried over to the next tick, starting with
+ * the clients that have not been run yet. At least one unit of work is run per tick.</p>
+ *
+ * <p>The budget is configured using the {@code ae2cc.scheduler.maxUnitsPerTick} (defaults to {@code 64}) and
+ * {@code ae2cc.scheduler.maxNanosPerTick} (defaults to {@code 2000000}) system properties. This class is not
+ * thread-safe and must only be used from the server thread.</p>
+ */
+final class MainThreadScheduler {
+
+    private static final Logger LOGGER = LogManager.getLogger();
+
+    static final int MAX_UNITS_PER_TICK = Math.max(1, Integer.getInteger("ae2cc.scheduler.maxUnitsPerTick", 64));
+    static final long MAX_NANOS_PER_TICK = Math.max(0L, Long.getLong("ae2cc.scheduler.maxNanosPerTick", 2_000_000L));
+
+    private static final Deque<Client> CLIENTS = new ArrayDeque<>();
+    private static final Set<Client> SCHEDULED_CLIENTS = Collections.newSetFromMap(new IdentityHashMap<>());
+
+    private static long ticks;
+
+    private MainThreadScheduler() {}
+
+    /**
+     * Schedules the given client to be run until it has no more work. Scheduling a client that is already scheduled
+     * has no effect.
+     */
+    static void schedule(Client client) {
+        if (SCHEDULED_CLIENTS.add(client)) CLIENTS.add(client);
+    }
+
+    /**
+     * Returns the number of clients that are currently scheduled.
+     */
+    static int scheduledClients() {
+        return SCHEDULED_CLIENTS.size();
+    }
+
+    /**
+     * Discards all scheduled clients, e.g. because the server is stopping.
+     */
+    static void clear() {
+        CLIENTS.clear();
+        SCHEDULED_CLIENTS.clear();
+    }
+
+    /**
+     * Runs scheduled work until the budget of the tick is exhausted. Called at the end of every server tick.
+     */
+    static void tick() {
+        long tick = ++ticks;
+        if (CLIENTS.isEmpty()) return;
+
+        long start = System.nanoTime();
+        int units = 0;
+
+        // Clients that have work left, but nothing that may be done in this tick.
+        List<Client> deferredClients = new ArrayList<>();
+
+        Client client;
+
+        while (units < MAX_UNITS_PER_TICK && (client = CLIENTS.poll()) != null) {
+            boolean ran;
+
+            try {
+                ran = client.runScheduledWork(tick);
+            } catch (Throwable t) {
+                // Only the failing unit of work is dropped. The client keeps its place if it has work left.
+                LOGGER.error("Failed to run scheduled work", t);
+                ran = true;
+            }
+
+            if (!client.hasScheduledWork()) {
+                SCHEDULED_CLIENTS.remove(client);
+            } else if (ran) {
+                CLIENTS.add(client);
+            } else {
+                deferredClients.add(client);
+            }
+
+            if (ran) {
+                units++;
+                if (System.nanoTime() - start >= MAX_NANOS_PER_TICK) break;
+            }
+        }
+
+        CLIENTS.addAll(deferredClients);
+    }
+
+    interface Client {
+
+        /**
+         * Runs a single unit of work.
+         *
+         * @param tick  a counter that is incremented for every server tick
+         *
+         * @return  whether a unit of work was run, {@code false} if there is nothing to do in this tick
+         */
+        boolean runScheduledWork(long tick);
+
+        /**
+         * Returns whether the client has work left. Clients without work are no longer run until they are scheduled
+         * again.
+         */
+        boolean hasScheduledWork();
+
+    }
+
+}
@@ -0,0 +1,90 @@
+/*
+ * Copyright (c) 2022-2024 Leon Linhart
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package io.github.themrmilchmann.ae2cc;
+
+import appeng.api.stacks.AEFluidKey;
+import appeng.api.stacks.AEItemKey;
+import appeng.api.stacks.AEKey;
+import appeng.api.stacks.KeyCounter;
+import it.unimi.dsi.fastutil.objects.Object2LongMap;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Builds the columnar Lua representation of a list of objects.
+ *
+ * <p>Instead of one table per object, the columnar representation consists of one list per property. For large ME
+ * systems, this avoids creating (and converting) tens of thousands of small tables.</p>
+ */
+final class ObjectColumns {
+
+    static final int TYPE_ITEM = 0;
+    static final int TYPE_FLUID = 1;
+
+    private ObjectColumns() {}
+
+    /**
+     * Returns the columnar representation of the item and fluid keys in the given counter.
+     */
+    static Map<String, Object> of(KeyCounter keyCounter, boolean includeDisplayNames) {
+        int capacity = keyCounter.size();
+
+        List<Integer> types = new ArrayList<>(capacity);
+        List<String> ids = new ArrayList<>(capacity);
+        List<Long> amounts = new ArrayList<>(capacity);
+        List<String> displayNames = includeDisplayNames ? new ArrayList<>(capacity) : null;
+
+        for (Object2LongMap.Entry<AEKey> entry : keyCounter) {
+            AEKey key = entry.getKey();
+
+            int type;
+
+            if (key instanceof AEItemKey) {
+                type = TYPE_ITEM;
+            } else if (key instanceof AEFluidKey) {
+                type = TYPE_FLUID;
+            } else {
+                continue;
+            }
+
+            types.add(type);
+            ids.add(LuaKeyCache.id(key));
+            amounts.add(ObjectQuery.toLuaAmount(key, entry.getLongValue()));
+
+            // Display names make up most of the size of the result, so they are only included on request.
+            if (displayNames != null) displayNames.add(LuaKeyCache.displayName(key));
+        }
+
+        Map<String, Object> columns = new HashMap<>();
+        columns.put("count", ids.size());
+        columns.put("types", types);
+        columns.put("ids", ids);
+        columns.put("amounts", amounts);
+        if (displayNames != null) columns.put("displayNames", displayNames);
+
+        return columns;
+    }
+
+}
@@ -0,0 +1,247 @@
+/*
+ * Copyright (c) 2022-2024 Leon Linhart
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package io.github.themrmilchmann.ae2cc;
+
+import appeng.api.stacks.AEFluidKey;
+import appeng.api.stacks.AEItemKey;
+import appeng.api.stacks.AEKey;
+import appeng.api.stacks.KeyCounter;
+import dan200.computercraft.api.lua.LuaException;
+import it.unimi.dsi.fastutil.objects.Object2LongMap;
+import net.minecraft.core.registries.Registries;
+import net.minecraft.resources.ResourceLocation;
+import net.minecraft.tags.TagKey;
+import net.minecraft.world.item.Item;
+import net.minecraft.world.level.material.Fluid;
+
+import javax.annotation.Nullable;
+import java.util.*;
+
+/**
+ * A server-side filter over the objects stored in an ME system.
+ *
+ * <p>Queries are evaluated directly against a {@link KeyCounter} and only return the matching keys. Converting the
+ * result into Lua values is left to the caller so that tables are built for returned entries only.</p>
+ */
+record ObjectQuery(
+    @Nullable String type,
+    @Nullable String namespace,
+    @Nullable String idPrefix,
+    @Nullable TagKey<Item> itemTag,
+    @Nullable TagKey<Fluid> fluidTag,
+    long minAmount,
+    long maxAmount,
+    SortKey sortBy,
+    boolean descending,
+    int limit
+) {
+
+    static final ObjectQuery ALL = new ObjectQuery(null, null, null, null, null, Long.MIN_VALUE, Long.MAX_VALUE, SortKey.NONE, false, Integer.MAX_VALUE);
+
+    static ObjectQuery parse(@Nullable Map<?, ?> filter) throws LuaException {
+        if (filter == null) return ALL;
+
+        String type = LuaTables.optString(filter, "type");
+        if (type != null && !"fluid".equals(type) && !"item".equals(type)) {
+            throw new LuaException("Invalid type: '" + type + "' (Valid types are 'fluid' and 'item')");
+        }
+
+        String namespace = LuaTables.optString(filter, "namespace");
+        String idPrefix = LuaTables.optString(filter, "idPrefix");
+
+        ResourceLocation tag = null;
+        String rawTag = LuaTables.optString(filter, "tag");
+        if (rawTag != null) {
+            tag = ResourceLocation.tryParse(rawTag.startsWith("#") ? rawTag.substring(1) : rawTag);
+            if (tag == null) throw new LuaException("Invalid tag: '" + rawTag + "'");
+        }
+
+        Long minAmount = LuaTables.optLong(filter, "minAmount");
+        Long maxAmount = LuaTables.optLong(filter, "maxAmount");
+
+        String rawSortBy = LuaTables.optString(filter, "sortBy");
+        SortKey sortBy = rawSortBy == null ? SortKey.NONE : switch (rawSortBy) {
+            case "amount" -> SortKey.AMOUNT;
+            case "id" -> SortKey.ID;
+            default -> throw new LuaException("Invalid sort key: '" + rawSortBy + "' (Valid keys are 'amount' and 'id')");
+        };
+
+        String rawOrder = LuaTables.optString(filter, "order");
+        boolean descending = rawOrder == null ? sortBy == SortKey.AMOUNT : switch (rawOrder) {
+            case "asc" -> false;
+            case "desc" -> true;
+            default -> throw new LuaException("Invalid order: '" + rawOrder + "' (Valid orders are 'asc' and 'desc')");
+        };
+
+        Long limit = LuaTables.optLong(filter, "limit");
+        if (limit != null && limit < 0) throw new LuaException("Invalid limit: " + limit + " (must not be negative)");
+
+        return new ObjectQuery(
+            type,
+            namespace,
+            idPrefix,
+            tag != null ? TagKey.create(Registries.ITEM, tag) : null,
+            tag != null ? TagKey.create(Registries.FLUID, tag) : null,
+            minAmount != null ? minAmount : Long.MIN_VALUE,
+            maxAmount != null ? maxAmount : Long.MAX_VALUE,
+            sortBy,
+            descending,
+            limit != null ? (int) Math.min(limit, Integer.MAX_VALUE) : Integer.MAX_VALUE
+        );
+    }
+
+    /**
+     * Returns the amount of the given key as it is reported to Lua.
+     *
+     * <p>Fluids are stored in droplets internally but reported in millibuckets.</p>
+     */
+    static long toLuaAmount(AEKey key, long amount) {
+        return key instanceof AEFluidKey ? amount / 81 : amount;
+    }
+
+    /**
+     * Returns the amount of the given key as it is stored in the ME system.
+     *
+     * @see #toLuaAmount(AEKey, long)
+     */
+    static long fromLuaAmount(AEKey key, long amount) {
+        return key instanceof AEFluidKey ? Math.multiplyExact(amount, 81) : amount;
+    }
+
+    /**
+     * Evaluates this query against the given counter and returns the matching entries in the requested order.
+     */
+    List<Match> execute(KeyCounter keyCounter) {
+        if (this.limit == 0) return List.of();
+
+        Comparator<Match> comparator = this.comparator();
+
+        if (comparator == null || this.limit == Integer.MAX_VALUE) {
+            List<Match> matches = new ArrayList<>();
+
+            for (Object2LongMap.Entry<AEKey> entry : keyCounter) {
+                Match match = this.test(entry.getKey(), entry.getLongValue());
+                if (match == null) continue;
+
+                matches.add(match);
+                if (comparator == null && matches.size() >= this.limit) break;
+            }
+
+            if (comparator != null) matches.sort(comparator);
+            return matches;
+        }
+
+        /*
+         * Keep only the best "limit" entries in a heap whose head is the worst retained entry. This keeps the work at
+         * O(n log limit) instead of sorting every matching entry.
+         */
+        Comparator<Match> reversed = comparator.reversed();
+        PriorityQueue<Match> heap = new PriorityQueue<>(Math.min(this.limit, 256) + 1, reversed);
+
+        for (Object2LongMap.Entry<AEKey> entry : keyCounter) {
+            Match match = this.test(entry.getKey(), entry.getLongValue());
+            if (match == null) continue;
+
+            if (heap.size() < this.limit) {
+                heap.add(match);
+            } else if (comparator.compare(match, heap.peek()) < 0) {
+                heap.poll();
+                heap.add(match);
+            }
+        }
+
+        List<Match> matches = new ArrayList<>(heap);
+        matches.sort(comparator);
+        return matches;
+    }
+
+    @Nullable
+    private Match test(AEKey key, long rawAmount) {
+        if (!this.matches(key)) return null;
+
+        long amount = toLuaAmount(key, rawAmount);
+        if (amount < this.minAmount || amount > this.maxAmount) return null;
+
+        return new Match(key, amount, rawAmount);
+    }
+
+    /**
+     * Returns whether the given key passes the type, ID and tag filters of this query.
+     */
+    boolean matches(AEKey key) {
+        if (key instanceof AEItemKey itemKey) {
+            if (this.type != null && !"item".equals(this.type)) return false;
+            if (this.itemTag != null && !itemKey.isTagged(this.itemTag)) return false;
+        } else if (key instanceof AEFluidKey fluidKey) {
+            if (this.type != null && !"fluid".equals(this.type)) return false;
+            if (this.fluidTag != null && !fluidKey.getFluid().is(this.fluidTag)) return false;
+        } else {
+            return false;
+        }
+
+        if (this.namespace == null && this.idPrefix == null) return true;
+
+        ResourceLocation id = key.getId();
+        if (this.namespace != null && !this.namespace.equals(id.getNamespace())) return false;
+        return this.idPrefix == null || matchesIdPrefix(id, this.idPrefix);
+    }
+
+    /**
+     * Checks whether {@code id.toString()} starts with {@code prefix} without building the string.
+     */
+    private static boolean matchesIdPrefix(ResourceLocation id, String prefix) {
+        String namespace = id.getNamespace();
+        int separator = prefix.indexOf(':');
+
+        if (separator < 0) return namespace.startsWith(prefix);
+        if (separator != namespace.length() || !prefix.startsWith(namespace)) return false;
+
+        return id.getPath().startsWith(prefix.substring(separator + 1));
+    }
+
+    @Nullable
+    private Comparator<Match> comparator() {
+        Comparator<Match> comparator = switch (this.sortBy) {
+            case NONE -> null;
+            case AMOUNT -> Comparator.comparingLong(Match::amount);
+            case ID -> Comparator.comparing((Match it) -> it.key().getId().getNamespace()).thenComparing(it -> it.key().getId().getPath());
+        };
+
+        if (comparator == null) return null;
+        return this.descending ? comparator.reversed() : comparator;
+    }
+
+    enum SortKey {
+        NONE,
+        AMOUNT,
+        ID
+    }
+
+    /**
+     * A matching entry.
+     *
+     * @param amount    the amount as reported to Lua
+     * @param rawAmount the amount as stored in the ME system
+     */
+    record Match(AEKey key, long amount, long rawAmount) {}
+
+}
@@ -0,0 +1,395 @@
+/*
+ * Copyright (c) 2022-2024 Leon Linhart
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package io.github.themrmilchmann.ae2cc;
+
+import appeng.api.config.Actionable;
+import appeng.api.networking.security.IActionSource;
+import appeng.api.stacks.AEFluidKey;
+import appeng.api.stacks.AEItemKey;
+import appeng.api.stacks.AEKey;
+import appeng.api.storage.MEStorage;
+import net.fabricmc.fabric.api.transfer.v1.fluid.FluidStorage;
+import net.fabricmc.fabric.api.transfer.v1.fluid.FluidVariant;
+import net.fabricmc.fabric.api.transfer.v1.item.ItemStorage;
+import net.fabricmc.fabric.api.transfer.v1.item.ItemVariant;
+import net.fabricmc.fabric.api.transfer.v1.storage.Storage;
+import net.fabricmc.fabric.api.transfer.v1.transaction.Transaction;
+import net.minecraft.core.BlockPos;
+import net.minecraft.core.Direction;
+import net.minecraft.world.level.Level;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import javax.annotation.Nullable;
+import java.util.*;
+
+/**
+ * A queue of transfers that move objects between a grid and an adjacent block.
+ *
+ * <p>Transfers are processed in the order in which they were queued. Each tick, at most {@link #getBudget() budget}
+ * units (i.e. items or buckets) are moved. For each transfer, all movable amounts of the tick are determined by
+ * simulating the transfer of every remaining object before any object is actually moved.</p>
+ *
+ * <p>Transfers may be queued from any thread, but are processed on the server thread. Transfers are not
+ * persisted.</p>
+ */
+final class ObjectTransfers {
+
+    private static final Logger LOGGER = LogManager.getLogger();
+
+    static final int DEFAULT_BUDGET = 1024;
+
+    static final int MAX_QUEUED_TRANSFERS = 64;
+    static final int MAX_TRANSFER_SIZE = 256;
+
+    private final Deque<Transfer> transfers = new ArrayDeque<>();
+
+    private volatile int budget = DEFAULT_BUDGET;
+
+    /**
+     * Returns the maximum number of units (i.e. items or buckets) that are moved per tick.
+     */
+    int getBudget() {
+        return this.budget;
+    }
+
+    void setBudget(int budget) {
+        if (budget <= 0) throw new IllegalArgumentException();
+        this.budget = budget;
+    }
+
+    synchronized boolean isEmpty() {
+        return this.transfers.isEmpty();
+    }
+
+    /**
+     * Queues a transfer. The amounts are given as they are stored in the ME system (i.e. in droplets for fluids).
+     *
+     * @param export    whether the objects are moved from the grid to the adjacent block (instead of the other way
+     *                  around)
+     *
+     * @throws IllegalStateException if too many transfers are queued
+     */
+    synchronized void add(UUID id, Direction side, boolean export, Map<AEKey, Long> amounts) {
+        if (this.transfers.size() >= MAX_QUEUED_TRANSFERS) throw new IllegalStateException("Too many queued transfers (at most " + MAX_QUEUED_TRANSFERS + " transfers may be queued)");
+
+        List<Entry> entries = new ArrayList<>(amounts.size());
+        for (Map.Entry<AEKey, Long> amount : amounts.entrySet()) {
+            entries.add(new Entry(amount.getKey(), amount.getValue()));
+        }
+
+        this.transfers.add(new Transfer(id, side, export, entries));
+    }
+
+    /**
+     * Moves objects for the queued transfers until the budget of this tick is exhausted.
+     *
+     * @return  whether there are transfers left
+     */
+    synchronized boolean process(MEStorage network, IActionSource actionSource, Level level, BlockPos pos, Listener listener) {
+        long budget = this.budget;
+
+        while (budget > 0) {
+            Transfer transfer = this.transfers.peek();
+            if (transfer == null) break;
+
+            boolean failed = false;
+
+            try {
+                budget -= transfer.process(network, actionSource, level, pos, budget);
+            } catch (RuntimeException e) {
+                // Drop the failing transfer instead of retrying it (and failing again) every tick.
+                LOGGER.error("Failed to process transfer", e);
+                failed = true;
+            }
+
+            if (failed || transfer.isDone()) {
+                this.transfers.poll();
+                listener.onTransferDone(transfer.id, transfer.toLua());
+            }
+        }
+
+        return !this.transfers.isEmpty();
+    }
+
+    @FunctionalInterface
+    interface Listener {
+
+        void onTransferDone(UUID id, List<Map<String, Object>> results);
+
+    }
+
+    private static final class Transfer {
+
+        private final UUID id;
+        private final Direction side;
+        private final boolean export;
+        private final List<Entry> entries;
+
+        private Transfer(UUID id, Direction side, boolean export, List<Entry> entries) {
+            this.id = id;
+            this.side = side;
+            this.export = export;
+            this.entries = entries;
+        }
+
+        boolean isDone() {
+            for (Entry entry : this.entries) {
+                if (!entry.done) return false;
+            }
+
+            return true;
+        }
+
+        /**
+         * Moves objects for this transfer within the given budget.
+         *
+         * @return  the number of units of the budget that have been used
+         */
+        long process(MEStorage network, IActionSource actionSource, Level level, BlockPos pos, long budget) {
+            BlockPos targetPos = pos.relative(this.side);
+            Direction targetSide = this.side.getOpposite();
+
+            /*
+             * Simulate the transfer of all remaining objects first. Objects that cannot be moved at all (because the
+             * source has run out of them or the destination is full) are not retried.
+             */
+            List<Entry> plannedEntries = new ArrayList<>();
+            List<Target<?>> plannedTargets = new ArrayList<>();
+            List<Long> plannedAmounts = new ArrayList<>();
+            long plannedUnits = 0;
+
+            for (Entry entry : this.entries) {
+                if (entry.done) continue;
+                if (plannedUnits >= budget) break;
+
+                Target<?> target = Target.find(level, targetPos, targetSide, entry.key);
+                if (target == null) {
+                    entry.done = true;
+                    continue;
+                }
+
+                long amountPerUnit = entry.key.getType().getAmountPerUnit();
+                long remainingBudget = budget - plannedUnits;
+                long maxAmount = remainingBudget > Long.MAX_VALUE / amountPerUnit ? Long.MAX_VALUE : remainingBudget * amountPerUnit;
+                long amount = Math.min(entry.remaining(), maxAmount);
+
+                amount = this.export
+                    ? target.simulateInsert(network.extract(entry.key, amount, Actionable.SIMULATE, actionSource))
+                    : network.insert(entry.key, target.simulateExtract(amount), Actionable.SIMULATE, actionSource);
+
+                if (amount <= 0) {
+                    entry.done = true;
+                    continue;
+                }
+
+                plannedEntries.add(entry);
+                plannedTargets.add(target);
+                plannedAmounts.add(amount);
+                plannedUnits += (amount + amountPerUnit - 1) / amountPerUnit;
+            }
+
+            for (int i = 0; i < plannedEntries.size(); i++) {
+                Entry entry = plannedEntries.get(i);
+                Target<?> target = plannedTargets.get(i);
+                long amount = plannedAmounts.get(i);
+
+                long transferred = this.export
+                    ? target.insertFrom(network, entry.key, amount, actionSource)
+                    : target.extractInto(network, entry.key, amount, actionSource);
+
+                entry.transferred += transferred;
+                if (transferred < amount || entry.remaining() == 0) entry.done = true;
+            }
+
+            /*
+             * A transfer that could not move anything must not stall the queue. Charging at least one unit guarantees
+             * that processing terminates.
+             */
+            return Math.max(1, plannedUnits);
+        }
+
+        List<Map<String, Object>> toLua() {
+            List<Map<String, Object>> results = new ArrayList<>(this.entries.size());
+
+            for (Entry entry : this.entries) {
+                Map<String, Object> data = new HashMap<>(LuaKeyCache.get(entry.key));
+                data.put("amount", ObjectQuery.toLuaAmount(entry.key, entry.amount));
+                data.put("transferred", ObjectQuery.toLuaAmount(entry.key, entry.transferred));
+
+                results.add(Map.copyOf(data));
+            }
+
+            return results;
+        }
+
+    }
+
+    private static final class Entry {
+
+        private final AEKey key;
+        private final long amount;
+
+        private long transferred;
+        private boolean done;
+
+        private Entry(AEKey key, long amount) {
+            this.key = key;
+            this.amount = amount;
+        }
+
+        long remaining() {
+            return this.amount - this.transferred;
+        }
+
+    }
+
+    /**
+     * The storage of an adjacent block for a specific variant.
+     */
+    private record Target<T>(Storage<T> storage, T variant) {
+
+        @Nullable
+        static Target<?> find(Level level, BlockPos pos, Direction side, AEKey key) {
+            if (key instanceof AEItemKey itemKey) {
+                Storage<ItemVariant> storage = ItemStorage.SIDED.find(level, pos, side);
+                return storage != null ? new Target<>(storage, itemKey.toVariant()) : null;
+            } else if (key instanceof AEFluidKey fluidKey) {
+                Storage<FluidVariant> storage = FluidStorage.SIDED.find(level, pos, side);
+                return storage != null ? new Target<>(storage, fluidKey.toVariant()) : null;
+            }
+
+            return null;
+        }
+
+        long simulateInsert(long amount) {
+            if (amount <= 0) return 0;
+
+            try (Transaction transaction = Transaction.openOuter()) {
+                return this.storage.insert(this.variant, amount, transaction);
+            }
+        }
+
+        long simulateExtract(long amount) {
+            if (amount <= 0) return 0;
+
+            try (Transaction transaction = Transaction.openOuter()) {
+                return this.storage.extract(this.variant, amount, transaction);
+            }
+        }
+
+        /**
+         * Moves up to the given amount from the network into this storage.
+         *
+         * <p>The objects are inserted into this storage first as part of a transaction that is only committed once
+         * exactly the inserted amount has been extracted from the network.</p>
+         *
+         * @return  the amount that has been moved
+         */
+        long insertFrom(MEStorage network, AEKey key, long amount, IActionSource actionSource) {
+            long available = network.extract(key, amount, Actionable.SIMULATE, actionSource);
+            if (available <= 0) return 0;
+
+            try (Transaction transaction = Transaction.openOuter()) {
+                long extracted;
+
+                try (Transaction nested = transaction.openNested()) {
+                    long inserted = this.storage.insert(this.variant, available, nested);
+                    if (inserted <= 0) return 0;
+
+                    extracted = network.extract(key, inserted, Actionable.MODULATE, actionSource);
+
+                    if (extracted == inserted) {
+                        nested.commit();
+                        transaction.commit();
+                        return extracted;
+                    }
+                }
+
+                if (extracted <= 0) return 0;
+
+                // The network provided less than it simulated. Insert only what has actually been extracted instead.
+                if (this.storage.insert(this.variant, extracted, transaction) == extracted) {
+                    transaction.commit();
+                    return extracted;
+                }
+
+                /*
+                 * This storage accepted the larger amount, but refuses the smaller one. The extracted objects are
+                 * neither in this storage nor in the network at this point.
+                 */
+                long returned = network.insert(key, extracted, Actionable.MODULATE, actionSource);
+                if (returned < extracted) LOGGER.error("Failed to return {} of {} to the network during a transfer", extracted - returned, key);
+
+                return 0;
+            }
+        }
+
+        /**
+         * Moves up to the given amount from this storage into the network.
+         *
+         * <p>Only the amount that the network accepts is extracted from this storage, so that nothing has to be put
+         * back into it.</p>
+         *
+         * @return  the amount that has been moved
+         */
+        long extractInto(MEStorage network, AEKey key, long amount, IActionSource actionSource) {
+            long available = this.simulateExtract(amount);
+            if (available <= 0) return 0;
+
+            long accepted = network.insert(key, available, Actionable.SIMULATE, actionSource);
+            if (accepted <= 0) return 0;
+
+            try (Transaction transaction = Transaction.openOuter()) {
+                long inserted;
+
+                try (Transaction nested = transaction.openNested()) {
+                    if (this.storage.extract(this.variant, accepted, nested) != accepted) return 0;
+
+                    inserted = network.insert(key, accepted, Actionable.MODULATE, actionSource);
+
+                    if (inserted == accepted) {
+                        nested.commit();
+                        transaction.commit();
+                        return inserted;
+                    }
+                }
+
+                if (inserted <= 0) return 0;
+
+                // The network accepted less than it simulated. Extract only what has actually been inserted instead.
+                if (this.storage.extract(this.variant, inserted, transaction) == inserted) {
+                    transaction.commit();
+                    return inserted;
+                }
+
+                // Take the objects back out of the network rather than duplicating them.
+                long removed = network.extract(key, inserted, Actionable.MODULATE, actionSource);
+                if (removed < inserted) LOGGER.error("Failed to remove {} of {} from the network during a transfer", inserted - removed, key);
+
+                return 0;
+            }
+        }
+
+    }
+
+}
@@ -0,0 +1,174 @@
+/*
+ * Copyright (c) 2022-2024 Leon Linhart
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package io.github.themrmilchmann.ae2cc;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Call statistics and latency histograms of a single operation of an adapter.
+ *
+ * <p>Two sets of statistics are kept: the end-to-end latency of each call (including the time spent waiting for the
+ * server thread, if any) and the time spent on the server thread on behalf of each call.</p>
+ *
+ * <p>The histograms use power-of-two buckets: the first bucket counts calls that took less than 1µs, the {@code i}-th
+ * bucket (zero-based) counts calls that took less than {@code 2^i}µs, and the last bucket counts all slower calls.
+ * This class is thread-safe.</p>
+ */
+final class OperationMetrics {
+
+    static final int BUCKETS = 24;
+
+    private final Latencies calls = new Latencies();
+    private final Latencies mainThread = new Latencies();
+
+    /**
+     * Records a call of the operation.
+     *
+     * @param nanos         the end-to-end time the call took
+     * @param onMainThread  whether the call was executed on the server thread
+     */
+    void record(long nanos, boolean onMainThread) {
+        this.calls.record(nanos);
+        if (onMainThread) this.mainThread.record(nanos);
+    }
+
+    /**
+     * Records time spent on the server thread on behalf of a call whose end-to-end latency is recorded separately.
+     */
+    void recordMainThread(long nanos) {
+        this.mainThread.record(nanos);
+    }
+
+    long count() {
+        return this.calls.count.sum();
+    }
+
+    long mainThreadNanos() {
+        return this.mainThread.totalNanos.sum();
+    }
+
+    long totalNanos() {
+        return this.calls.totalNanos.sum();
+    }
+
+    long maxNanos() {
+        return this.calls.maxNanos.get();
+    }
+
+    /**
+     * Returns an upper bound (in microseconds) of the given percentile of the recorded end-to-end latencies, or
+     * {@code 0} if no call has been recorded.
+     */
+    long percentileMicros(double percentile) {
+        return this.calls.percentileMicros(percentile);
+    }
+
+    /**
+     * Returns an upper bound (in microseconds) of the given percentile of the recorded time spent on the server thread
+     * per call, or {@code 0} if no such time has been recorded.
+     */
+    long mainThreadPercentileMicros(double percentile) {
+        return this.mainThread.percentileMicros(percentile);
+    }
+
+    Map<String, Object> toLua() {
+        long count = this.count();
+
+        return Map.ofEntries(
+            Map.entry("count", count),
+            Map.entry("totalTime", this.totalNanos()),
+            Map.entry("maxTime", this.maxNanos()),
+            Map.entry("meanTime", count > 0 ? this.totalNanos() / count : 0L),
+            Map.entry("p50", this.percentileMicros(0.5)),
+            Map.entry("p99", this.percentileMicros(0.99)),
+            Map.entry("histogram", toList(this.calls.histogramSnapshot())),
+            Map.entry("mainThreadCount", this.mainThread.count.sum()),
+            Map.entry("mainThreadTime", this.mainThreadNanos()),
+            Map.entry("mainThreadMaxTime", this.mainThread.maxNanos.get()),
+            Map.entry("mainThreadP99", this.mainThreadPercentileMicros(0.99)),
+            Map.entry("mainThreadHistogram", toList(this.mainThread.histogramSnapshot()))
+        );
+    }
+
+    private static List<Long> toList(long[] values) {
+        List<Long> list = new ArrayList<>(values.length);
+        for (long value : values) list.add(value);
+
+        return list;
+    }
+
+    private static int bucketOf(long nanos) {
+        long micros = TimeUnit.NANOSECONDS.toMicros(nanos);
+        if (micros == 0) return 0;
+
+        return Math.min(64 - Long.numberOfLeadingZeros(micros), BUCKETS - 1);
+    }
+
+    private static final class Latencies {
+
+        private final LongAdder count = new LongAdder();
+        private final LongAdder totalNanos = new LongAdder();
+        private final AtomicLong maxNanos = new AtomicLong();
+        private final AtomicLongArray histogram = new AtomicLongArray(BUCKETS);
+
+        void record(long nanos) {
+            this.count.increment();
+            this.totalNanos.add(nanos);
+
+            this.maxNanos.accumulateAndGet(nanos, Math::max);
+            this.histogram.incrementAndGet(bucketOf(nanos));
+        }
+
+        long percentileMicros(double percentile) {
+            long[] counts = this.histogramSnapshot();
+
+            long total = 0;
+            for (long count : counts) total += count;
+            if (total == 0) return 0;
+
+            long threshold = (long) Math.ceil(total * percentile);
+            long seen = 0;
+
+            for (int i = 0; i < counts.length; i++) {
+                seen += counts[i];
+                if (seen >= threshold) return 1L << i;
+            }
+
+            return 1L << (BUCKETS - 1);
+        }
+
+        long[] histogramSnapshot() {
+            long[] counts = new long[BUCKETS];
+            for (int i = 0; i < BUCKETS; i++) counts[i] = this.histogram.get(i);
+
+            return counts;
+        }
+
+    }
+
+}
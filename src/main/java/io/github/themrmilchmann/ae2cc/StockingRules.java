@@ -0,0 +1,296 @@
+/*
+ * Copyright (c) 2022-2024 Leon Linhart
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package io.github.themrmilchmann.ae2cc;
+
+import appeng.api.stacks.AEKey;
+import appeng.api.stacks.KeyCounter;
+import net.minecraft.nbt.CompoundTag;
+import net.minecraft.nbt.ListTag;
+import net.minecraft.nbt.Tag;
+
+import javax.annotation.Nullable;
+import java.util.*;
+import java.util.function.Predicate;
+
+/**
+ * A set of rules that keep the amounts of keys in the ME system at a target level by scheduling crafting jobs.
+ *
+ * <p>Rules are checked periodically from the adapter's grid tick. The jobs scheduled by a rule are tracked so that a
+ * rule does not schedule more jobs while its previously scheduled jobs are still in flight.</p>
+ *
+ * <p>A rule whose jobs fail or are cancelled (e.g. because ingredients are missing) backs off exponentially before it
+ * schedules new jobs, so that a rule that cannot be satisfied does not start new crafting calculations every check.
+ * This class is thread-safe.</p>
+ */
+final class StockingRules {
+
+    static final int MAX_SIZE = 256;
+    static final int CHECK_INTERVAL = 20;
+    static final int MAX_BACKOFF = 20 * 60 * 5;
+
+    private final Map<AEKey, Rule> rules = new LinkedHashMap<>();
+
+    private long lastCheckTick = Long.MIN_VALUE;
+
+    /**
+     * Adds or replaces the rule for the given key.
+     *
+     * @throws IllegalArgumentException if the target or the batch size is not positive, or too large
+     * @throws IllegalStateException    if the maximum number of rules has been reached
+     */
+    synchronized void put(AEKey key, long target, long batchSize, @Nullable String cpu, int maxConcurrentJobs) {
+        validate(key, target, batchSize);
+
+        Rule existing = this.rules.get(key);
+        if (existing == null && this.rules.size() >= MAX_SIZE) throw new IllegalStateException("Too many stocking rules (at most " + MAX_SIZE + " rules may be added)");
+
+        Rule rule = new Rule(target, batchSize, cpu, maxConcurrentJobs);
+        if (existing != null) rule.jobs.putAll(existing.jobs);
+
+        this.rules.put(key, rule);
+    }
+
+    /**
+     * Ensures that the given amounts are positive and that jobs for them can be scheduled without overflowing when
+     * the amounts are converted to the amounts stored in the ME system.
+     */
+    private static void validate(AEKey key, long target, long batchSize) {
+        if (target <= 0) throw new IllegalArgumentException("Invalid target: " + target + " (must be positive)");
+        if (batchSize <= 0) throw new IllegalArgumentException("Invalid batch size: " + batchSize + " (must be positive)");
+
+        try {
+            ObjectQuery.fromLuaAmount(key, target);
+            ObjectQuery.fromLuaAmount(key, batchSize);
+        } catch (ArithmeticException e) {
+            throw new IllegalArgumentException("Invalid amount: " + Math.max(target, batchSize) + " (too large)");
+        }
+    }
+
+    synchronized boolean remove(AEKey key) {
+        return this.rules.remove(key) != null;
+    }
+
+    synchronized boolean isEmpty() {
+        return this.rules.isEmpty();
+    }
+
+    synchronized List<Map<String, Object>> toLua() {
+        List<Map<String, Object>> result = new ArrayList<>(this.rules.size());
+
+        for (Map.Entry<AEKey, Rule> entry : this.rules.entrySet()) {
+            Rule rule = entry.getValue();
+
+            Map<String, Object> data = new HashMap<>(LuaKeyCache.get(entry.getKey()));
+            data.put("target", rule.target);
+            data.put("batchSize", rule.batchSize);
+            if (rule.cpu != null) data.put("cpu", rule.cpu);
+            data.put("maxConcurrentJobs", rule.maxConcurrentJobs);
+            data.put("jobs", rule.jobs.keySet().stream().map(UUID::toString).toList());
+            data.put("failedJobs", rule.failures);
+
+            result.add(Map.copyOf(data));
+        }
+
+        return result;
+    }
+
+    /**
+     * Checks all rules if the check interval has elapsed since the last check and schedules crafting jobs for keys
+     * that are below their target amount.
+     *
+     * @param isInFlight    tests whether the job with the given ID is still pending or running
+     *
+     * @return  whether the state of any rule has changed
+     */
+    synchronized boolean check(KeyCounter inventory, long gameTime, Predicate<UUID> isInFlight, Scheduler scheduler) {
+        if (this.rules.isEmpty()) return false;
+        if (this.lastCheckTick != Long.MIN_VALUE && gameTime - this.lastCheckTick < CHECK_INTERVAL) return false;
+
+        this.lastCheckTick = gameTime;
+
+        boolean changed = false;
+
+        for (Map.Entry<AEKey, Rule> entry : this.rules.entrySet()) {
+            AEKey key = entry.getKey();
+            Rule rule = entry.getValue();
+
+            changed |= rule.jobs.keySet().removeIf(id -> !isInFlight.test(id));
+            if (rule.jobs.size() >= rule.maxConcurrentJobs) continue;
+            if (rule.retryTick != Long.MIN_VALUE && gameTime < rule.retryTick) continue;
+
+            long inFlightAmount = 0;
+            for (long amount : rule.jobs.values()) inFlightAmount += amount;
+
+            long deficit = rule.target - ObjectQuery.toLuaAmount(key, inventory.get(key)) - inFlightAmount;
+
+            while (deficit > 0 && rule.jobs.size() < rule.maxConcurrentJobs) {
+                long amount = Math.min(rule.batchSize, deficit);
+
+                UUID id = scheduler.schedule(key, ObjectQuery.fromLuaAmount(key, amount), rule.cpu);
+                rule.jobs.put(id, amount);
+
+                deficit -= amount;
+                changed = true;
+            }
+        }
+
+        return changed;
+    }
+
+    /**
+     * Records that the job with the given ID has finished. If the job was scheduled by a rule and has failed (or has
+     * been cancelled), the rule backs off before it schedules new jobs. Otherwise, the backoff of the rule is reset.
+     */
+    synchronized void onJobFinished(UUID jobID, boolean successful, long gameTime) {
+        for (Rule rule : this.rules.values()) {
+            if (rule.jobs.remove(jobID) == null) continue;
+
+            if (successful) {
+                rule.failures = 0;
+                rule.retryTick = Long.MIN_VALUE;
+            } else {
+                rule.failures++;
+                rule.retryTick = gameTime + backoff(rule.failures);
+            }
+
+            return;
+        }
+    }
+
+    /**
+     * Returns the number of ticks a rule waits after the given number of consecutive failures.
+     */
+    private static long backoff(int failures) {
+        return Math.min((long) CHECK_INTERVAL << Math.min(failures, 16), MAX_BACKOFF);
+    }
+
+    synchronized ListTag save() {
+        ListTag rulesTag = new ListTag();
+
+        for (Map.Entry<AEKey, Rule> entry : this.rules.entrySet()) {
+            Rule rule = entry.getValue();
+
+            CompoundTag ruleTag = new CompoundTag();
+            ruleTag.put("key", entry.getKey().toTagGeneric());
+            ruleTag.putLong("target", rule.target);
+            ruleTag.putLong("batchSize", rule.batchSize);
+            if (rule.cpu != null) ruleTag.putString("cpu", rule.cpu);
+            ruleTag.putInt("maxConcurrentJobs", rule.maxConcurrentJobs);
+
+            ListTag jobsTag = new ListTag();
+
+            for (Map.Entry<UUID, Long> job : rule.jobs.entrySet()) {
+                CompoundTag jobTag = new CompoundTag();
+                jobTag.putUUID("id", job.getKey());
+                jobTag.putLong("amount", job.getValue());
+
+                jobsTag.add(jobTag);
+            }
+
+            ruleTag.put("jobs", jobsTag);
+            rulesTag.add(ruleTag);
+        }
+
+        return rulesTag;
+    }
+
+    void load(ListTag rulesTag) {
+        Map<AEKey, Rule> rules = new LinkedHashMap<>();
+
+        for (int i = 0; i < rulesTag.size() && rules.size() < MAX_SIZE; i++) {
+            CompoundTag ruleTag = rulesTag.getCompound(i);
+
+            AEKey key = AEKey.fromTagGeneric(ruleTag.getCompound("key"));
+            if (key == null) continue;
+
+            long target = ruleTag.getLong("target");
+            long batchSize = Math.max(1, ruleTag.getLong("batchSize"));
+
+            try {
+                validate(key, target, batchSize);
+            } catch (IllegalArgumentException e) {
+                continue;
+            }
+
+            Rule rule = new Rule(
+                target,
+                batchSize,
+                ruleTag.contains("cpu", Tag.TAG_STRING) ? ruleTag.getString("cpu") : null,
+                Math.max(1, ruleTag.getInt("maxConcurrentJobs"))
+            );
+
+            ListTag jobsTag = ruleTag.getList("jobs", Tag.TAG_COMPOUND);
+
+            for (int j = 0; j < jobsTag.size(); j++) {
+                CompoundTag jobTag = jobsTag.getCompound(j);
+                rule.jobs.put(jobTag.getUUID("id"), jobTag.getLong("amount"));
+            }
+
+            rules.put(key, rule);
+        }
+
+        synchronized (this) {
+            this.rules.clear();
+            this.rules.putAll(rules);
+            this.lastCheckTick = Long.MIN_VALUE;
+        }
+    }
+
+    @FunctionalInterface
+    interface Scheduler {
+
+        /**
+         * Schedules a crafting job and returns its ID.
+         *
+         * @param amount    the amount to craft (as stored in the ME system)
+         */
+        UUID schedule(AEKey key, long amount, @Nullable String cpu);
+
+    }
+
+    private static final class Rule {
+
+        private final long target;
+        private final long batchSize;
+
+        @Nullable
+        private final String cpu;
+
+        private final int maxConcurrentJobs;
+
+        // The in-flight jobs scheduled by this rule, mapped to the amounts they were scheduled for.
+        private final Map<UUID, Long> jobs = new LinkedHashMap<>();
+
+        // The number of consecutive failed jobs and the game time before which no new jobs are scheduled.
+        private int failures;
+        private long retryTick = Long.MIN_VALUE;
+
+        private Rule(long target, long batchSize, @Nullable String cpu, int maxConcurrentJobs) {
+            this.target = target;
+            this.batchSize = batchSize;
+            this.cpu = cpu;
+            this.maxConcurrentJobs = maxConcurrentJobs;
+        }
+
+    }
+
+}
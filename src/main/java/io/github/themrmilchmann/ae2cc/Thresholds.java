@@ -0,0 +1,225 @@
+/*
+ * Copyright (c) 2022-2024 Leon Linhart
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package io.github.themrmilchmann.ae2cc;
+
+import appeng.api.stacks.AEKey;
+import appeng.api.stacks.KeyCounter;
+import net.minecraft.nbt.CompoundTag;
+import net.minecraft.nbt.ListTag;
+import net.minecraft.nbt.Tag;
+
+import javax.annotation.Nullable;
+import java.util.*;
+
+/**
+ * A set of thresholds for the amounts of keys in the ME system (i.e. virtual level emitters).
+ *
+ * <p>Thresholds are evaluated incrementally: Only keys whose amount has changed since the last evaluation are
+ * re-evaluated, and listeners are only notified when a key crosses into a different {@link State state}. This class
+ * is thread-safe.</p>
+ */
+final class Thresholds {
+
+    static final int MAX_SIZE = 256;
+
+    private final Map<AEKey, Threshold> thresholds = new LinkedHashMap<>();
+
+    // Keys whose raw amount has changed (or is unknown) since the last evaluation. A null value means "unknown".
+    private final Map<AEKey, Long> dirtyKeys = new LinkedHashMap<>();
+
+    /**
+     * Adds or replaces the threshold for the given key.
+     *
+     * @throws IllegalStateException if the maximum number of thresholds has been reached
+     */
+    synchronized void put(AEKey key, @Nullable Long below, @Nullable Long above) {
+        Threshold existing = this.thresholds.get(key);
+        if (existing == null && this.thresholds.size() >= MAX_SIZE) throw new IllegalStateException("Too many thresholds (at most " + MAX_SIZE + " thresholds may be added)");
+
+        this.thresholds.put(key, new Threshold(below, above, existing != null ? existing.state : State.NORMAL));
+        this.dirtyKeys.put(key, null);
+    }
+
+    synchronized boolean remove(AEKey key) {
+        this.dirtyKeys.remove(key);
+        return this.thresholds.remove(key) != null;
+    }
+
+    synchronized List<Map<String, Object>> toLua() {
+        List<Map<String, Object>> result = new ArrayList<>(this.thresholds.size());
+
+        for (Map.Entry<AEKey, Threshold> entry : this.thresholds.entrySet()) {
+            Threshold threshold = entry.getValue();
+
+            Map<String, Object> data = new HashMap<>(LuaKeyCache.get(entry.getKey()));
+            if (threshold.below != null) data.put("below", threshold.below);
+            if (threshold.above != null) data.put("above", threshold.above);
+            data.put("state", threshold.state.name());
+
+            result.add(Map.copyOf(data));
+        }
+
+        return result;
+    }
+
+    /**
+     * Records a change of the amount of the given key.
+     *
+     * @return  whether the change needs to be evaluated
+     */
+    synchronized boolean onStackChange(AEKey key, long amount) {
+        if (!this.thresholds.containsKey(key)) return false;
+
+        this.dirtyKeys.put(key, amount);
+        return true;
+    }
+
+    synchronized boolean hasDirtyKeys() {
+        return !this.dirtyKeys.isEmpty();
+    }
+
+    /**
+     * Re-evaluates the thresholds of all keys whose amount has changed since the last evaluation.
+     *
+     * @return  whether any threshold changed its state
+     */
+    boolean evaluate(KeyCounter inventory, Listener listener) {
+        List<Crossing> crossings = new ArrayList<>();
+
+        synchronized (this) {
+            if (this.dirtyKeys.isEmpty()) return false;
+
+            for (Map.Entry<AEKey, Long> entry : this.dirtyKeys.entrySet()) {
+                AEKey key = entry.getKey();
+
+                Threshold threshold = this.thresholds.get(key);
+                if (threshold == null) continue;
+
+                long rawAmount = entry.getValue() != null ? entry.getValue() : inventory.get(key);
+                long amount = ObjectQuery.toLuaAmount(key, rawAmount);
+
+                State state = threshold.evaluate(amount);
+                if (state == threshold.state) continue;
+
+                threshold.state = state;
+                crossings.add(new Crossing(key, state, amount));
+            }
+
+            this.dirtyKeys.clear();
+        }
+
+        for (Crossing crossing : crossings) {
+            listener.onCrossed(crossing.key(), crossing.state(), crossing.amount());
+        }
+
+        return !crossings.isEmpty();
+    }
+
+    synchronized ListTag save() {
+        ListTag thresholdsTag = new ListTag();
+
+        for (Map.Entry<AEKey, Threshold> entry : this.thresholds.entrySet()) {
+            Threshold threshold = entry.getValue();
+
+            CompoundTag thresholdTag = new CompoundTag();
+            thresholdTag.put("key", entry.getKey().toTagGeneric());
+            if (threshold.below != null) thresholdTag.putLong("below", threshold.below);
+            if (threshold.above != null) thresholdTag.putLong("above", threshold.above);
+            thresholdTag.putString("state", threshold.state.name());
+
+            thresholdsTag.add(thresholdTag);
+        }
+
+        return thresholdsTag;
+    }
+
+    void load(ListTag thresholdsTag) {
+        Map<AEKey, Threshold> thresholds = new LinkedHashMap<>();
+
+        for (int i = 0; i < thresholdsTag.size() && thresholds.size() < MAX_SIZE; i++) {
+            CompoundTag thresholdTag = thresholdsTag.getCompound(i);
+
+            AEKey key = AEKey.fromTagGeneric(thresholdTag.getCompound("key"));
+            if (key == null) continue;
+
+            Long below = thresholdTag.contains("below", Tag.TAG_LONG) ? thresholdTag.getLong("below") : null;
+            Long above = thresholdTag.contains("above", Tag.TAG_LONG) ? thresholdTag.getLong("above") : null;
+
+            State state;
+
+            try {
+                state = State.valueOf(thresholdTag.getString("state"));
+            } catch (IllegalArgumentException e) {
+                state = State.NORMAL;
+            }
+
+            thresholds.put(key, new Threshold(below, above, state));
+        }
+
+        synchronized (this) {
+            this.thresholds.clear();
+            this.thresholds.putAll(thresholds);
+
+            // The amounts might have changed while the adapter was unloaded.
+            this.dirtyKeys.clear();
+            for (AEKey key : thresholds.keySet()) this.dirtyKeys.put(key, null);
+        }
+    }
+
+    enum State {
+        LOW,
+        NORMAL,
+        HIGH
+    }
+
+    @FunctionalInterface
+    interface Listener {
+
+        void onCrossed(AEKey key, State state, long amount);
+
+    }
+
+    private record Crossing(AEKey key, State state, long amount) {}
+
+    private static final class Threshold {
+
+        @Nullable
+        private final Long below, above;
+
+        private State state;
+
+        private Threshold(@Nullable Long below, @Nullable Long above, State state) {
+            this.below = below;
+            this.above = above;
+            this.state = state;
+        }
+
+        private State evaluate(long amount) {
+            if (this.below != null && amount < this.below) return State.LOW;
+            if (this.above != null && amount > this.above) return State.HIGH;
+
+            return State.NORMAL;
+        }
+
+    }
+
+}
@@ -0,0 +1,182 @@
+/*
+ * Copyright (c) 2022-2024 Leon Linhart
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package io.github.themrmilchmann.ae2cc;
+
+import appeng.api.stacks.AEKey;
+import appeng.api.stacks.KeyCounter;
+import net.minecraft.nbt.ListTag;
+
+import javax.annotation.Nullable;
+import java.util.*;
+
+/**
+ * A list of watched keys whose amounts are periodically sampled into fixed-size ring buffers.
+ *
+ * <p>Sampling happens on the server thread while the watchlist may be modified and queried from any thread. Only the
+ * watched keys are persisted, the sampled series are not.</p>
+ *
+ * <p>All watched keys are sampled together and the game time of each sample is recorded alongside the amounts. Since
+ * the adapter may not tick at all times (e.g. while its chunk is unloaded or the grid is offline), the actual delta
+ * between samples may be larger than {@link #SAMPLE_INTERVAL}. Rates and time windows are thus derived from the
+ * recorded game times.</p>
+ */
+final class Watchlist {
+
+    static final int MAX_SIZE = 256;
+
+    static final int SAMPLE_INTERVAL = 20;
+    static final int CAPACITY = 900;
+
+    private final Map<AEKey, LongRingBuffer> series = new LinkedHashMap<>();
+    private final LongRingBuffer sampleTicks = new LongRingBuffer(CAPACITY);
+
+    private long lastSampleTick = Long.MIN_VALUE;
+
+    /**
+     * Adds the given key to the watchlist.
+     *
+     * @return  whether the key was added, {@code false} if it was already watched
+     *
+     * @throws IllegalStateException if the watchlist is full
+     */
+    synchronized boolean add(AEKey key) {
+        if (this.series.containsKey(key)) return false;
+        if (this.series.size() >= MAX_SIZE) throw new IllegalStateException("Watchlist is full (at most " + MAX_SIZE + " objects may be watched)");
+
+        this.series.put(key, new LongRingBuffer(CAPACITY));
+        return true;
+    }
+
+    /**
+     * Removes the given key from the watchlist.
+     *
+     * @return  whether the key was removed, {@code false} if it was not watched
+     */
+    synchronized boolean remove(AEKey key) {
+        return this.series.remove(key) != null;
+    }
+
+    synchronized boolean contains(AEKey key) {
+        return this.series.containsKey(key);
+    }
+
+    synchronized boolean isEmpty() {
+        return this.series.isEmpty();
+    }
+
+    synchronized List<AEKey> keys() {
+        return List.copyOf(this.series.keySet());
+    }
+
+    /**
+     * Samples the amounts of the watched keys if the sample interval has elapsed since the last sample.
+     */
+    synchronized void sample(KeyCounter inventory, long gameTime) {
+        if (this.series.isEmpty()) return;
+        if (this.lastSampleTick != Long.MIN_VALUE && gameTime - this.lastSampleTick < SAMPLE_INTERVAL) return;
+
+        this.lastSampleTick = gameTime;
+        this.sampleTicks.add(gameTime);
+
+        for (Map.Entry<AEKey, LongRingBuffer> entry : this.series.entrySet()) {
+            entry.getValue().add(ObjectQuery.toLuaAmount(entry.getKey(), inventory.get(entry.getKey())));
+        }
+    }
+
+    /**
+     * Returns the samples of the given key ordered from oldest to newest, or {@code null} if the key is not watched.
+     */
+    @Nullable
+    synchronized Series series(AEKey key) {
+        LongRingBuffer buffer = this.series.get(key);
+        if (buffer == null) return null;
+
+        /*
+         * Keys that were added later have fewer samples, but since all keys are sampled together, the samples of each
+         * key always correspond to the most recent sample ticks.
+         */
+        return new Series(this.sampleTicks.latest(buffer.size()), buffer.latest(buffer.size()));
+    }
+
+    /**
+     * Returns the average rate of change of the amount of the given key per minute over (up to) the given number of
+     * ticks, or {@code null} if the key is not watched or if there are not enough samples yet.
+     */
+    @Nullable
+    synchronized Double ratePerMinute(AEKey key, long windowTicks) {
+        LongRingBuffer buffer = this.series.get(key);
+        if (buffer == null || buffer.size() < 2) return null;
+
+        long latestTick = this.sampleTicks.get(0);
+
+        int age = 0;
+        while (age + 1 < buffer.size() && latestTick - this.sampleTicks.get(age + 1) <= windowTicks) age++;
+
+        /*
+         * If the window is shorter than the actual delta between the two most recent samples (e.g. because sampling was
+         * paused), the rate is computed over the most recent delta instead.
+         */
+        if (age < 1) age = 1;
+
+        long ticks = latestTick - this.sampleTicks.get(age);
+        if (ticks <= 0) return null;
+
+        long delta = buffer.get(0) - buffer.get(age);
+        return delta * (1200.0D / ticks);
+    }
+
+    ListTag save() {
+        ListTag keysTag = new ListTag();
+
+        for (AEKey key : this.keys()) {
+            keysTag.add(key.toTagGeneric());
+        }
+
+        return keysTag;
+    }
+
+    void load(ListTag keysTag) {
+        Map<AEKey, LongRingBuffer> series = new LinkedHashMap<>();
+
+        for (int i = 0; i < keysTag.size() && series.size() < MAX_SIZE; i++) {
+            AEKey key = AEKey.fromTagGeneric(keysTag.getCompound(i));
+            if (key == null) continue;
+
+            series.put(key, new LongRingBuffer(CAPACITY));
+        }
+
+        synchronized (this) {
+            this.series.clear();
+            this.series.putAll(series);
+            this.lastSampleTick = Long.MIN_VALUE;
+        }
+    }
+
+    /**
+     * The samples of a watched key.
+     *
+     * @param ticks     the game times at which the samples were taken
+     * @param amounts   the sampled amounts
+     */
+    record Series(long[] ticks, long[] amounts) {}
+
+}